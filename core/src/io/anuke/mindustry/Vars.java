@@ -249,6 +249,7 @@ public class Vars implements Loadable{
             group.setRemoveListener(entity -> {
                 if(entity instanceof SyncTrait && net.client()){
                     netClient.addRemovedEntity((entity).getID());
+                    netClient.removeBaseline(entity.getID());
                 }
             });
         }
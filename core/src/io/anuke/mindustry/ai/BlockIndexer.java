@@ -9,7 +9,6 @@ import io.anuke.mindustry.content.*;
 import io.anuke.mindustry.entities.type.*;
 import io.anuke.mindustry.game.EventType.*;
 import io.anuke.mindustry.game.*;
-import io.anuke.mindustry.game.Teams.*;
 import io.anuke.mindustry.type.*;
 import io.anuke.mindustry.world.*;
 import io.anuke.mindustry.world.blocks.*;
@@ -28,8 +27,8 @@ public class BlockIndexer{
     private final ObjectSet<Item> itemSet = new ObjectSet<>();
     /** Stores all ore quadtrants on the map. */
     private ObjectMap<Item, ObjectSet<Tile>> ores = new ObjectMap<>();
-    /** Tags all quadrants. */
-    private GridBits[] structQuadrants;
+    /** Targetable tile entities in each quadrant by team, indexed by quadrant position. Null if there were never any. */
+    private Array<TileEntity>[][] quadrants;
     /** Stores all damaged tile entities by team. */
     private ObjectSet<Tile>[] damagedTiles = new ObjectSet[Team.all.length];
     /**All ores available on this map.*/
@@ -72,11 +71,8 @@ public class BlockIndexer{
             allOres.clear();
             ores = null;
 
-            //create bitset for each team type that contains each quadrant
-            structQuadrants = new GridBits[Team.all.length];
-            for(int i = 0; i < Team.all.length; i++){
-                structQuadrants[i] = new GridBits(Mathf.ceil(world.width() / (float)quadrantSize), Mathf.ceil(world.height() / (float)quadrantSize));
-            }
+            //create entity lists for each team type that contain each quadrant
+            quadrants = new Array[Team.all.length][quadWidth() * quadHeight()];
 
             for(int x = 0; x < world.width(); x++){
                 for(int y = 0; y < world.height(); y++){
@@ -141,7 +137,7 @@ public class BlockIndexer{
     /** Get all enemy blocks with a flag. */
     public Array<Tile> getEnemy(Team team, BlockFlag type){
         returnArray.clear();
-        for(Team enemy : state.teams.enemiesOf(team)){
+        for(Team enemy : state.teams.enemyArrayOf(team)){
             if(state.teams.isActive(enemy)){
                 ObjectSet<Tile> set = getFlagged(enemy)[type.ordinal()];
                 if(set != null){
@@ -170,28 +166,33 @@ public class BlockIndexer{
     public TileEntity findTile(Team team, float x, float y, float range, Boolf<Tile> pred, boolean usePriority){
         TileEntity closest = null;
         float dst = 0;
+        int quadWidth = quadWidth(), quadHeight = quadHeight();
+        float quadWorldSize = quadrantSize * tilesize;
+        Array<TileEntity>[] teamQuadrants = quadrants[team.ordinal()];
 
-        for(int rx = Math.max((int)((x - range) / tilesize / quadrantSize), 0); rx <= (int)((x + range) / tilesize / quadrantSize) && rx < quadWidth(); rx++){
-            for(int ry = Math.max((int)((y - range) / tilesize / quadrantSize), 0); ry <= (int)((y + range) / tilesize / quadrantSize) && ry < quadHeight(); ry++){
-
-                if(!getQuad(team, rx, ry)) continue;
+        for(int rx = Math.max((int)((x - range) / tilesize / quadrantSize), 0); rx <= (int)((x + range) / tilesize / quadrantSize) && rx < quadWidth; rx++){
+            for(int ry = Math.max((int)((y - range) / tilesize / quadrantSize), 0); ry <= (int)((y + range) / tilesize / quadrantSize) && ry < quadHeight; ry++){
+                Array<TileEntity> entities = teamQuadrants[rx + ry * quadWidth];
 
-                for(int tx = rx * quadrantSize; tx < (rx + 1) * quadrantSize && tx < world.width(); tx++){
-                    for(int ty = ry * quadrantSize; ty < (ry + 1) * quadrantSize && ty < world.height(); ty++){
-                        Tile other = world.ltile(tx, ty);
+                if(entities == null || entities.isEmpty()) continue;
 
-                        if(other == null) continue;
+                //skip quadrants that can't contain anything closer; entity positions may be offset by up to a tile
+                if(!usePriority && closest != null){
+                    float dx = Math.max(Math.max(rx * quadWorldSize - tilesize - x, x - (rx + 1) * quadWorldSize - tilesize), 0f);
+                    float dy = Math.max(Math.max(ry * quadWorldSize - tilesize - y, y - (ry + 1) * quadWorldSize - tilesize), 0f);
+                    if(dx * dx + dy * dy >= dst * dst) continue;
+                }
 
-                        if(other.entity == null || other.getTeam() != team || !pred.get(other) || !other.block().targetable)
-                            continue;
+                for(int i = 0; i < entities.size; i++){
+                    TileEntity e = entities.get(i);
 
-                        TileEntity e = other.entity;
+                    //the entity may have been removed since the last quadrant update
+                    if(e.tile.entity != e || e.getTeam() != team || !pred.get(e.tile)) continue;
 
-                        float ndst = Mathf.dst(x, y, e.x, e.y);
-                        if(ndst < range && (closest == null || ndst < dst || (usePriority && closest.block.priority.ordinal() < e.block.priority.ordinal()))){
-                            dst = ndst;
-                            closest = e;
-                        }
+                    float ndst = Mathf.dst(x, y, e.x, e.y);
+                    if(ndst < range && (closest == null || ndst < dst || (usePriority && closest.block.priority.ordinal() < e.block.priority.ordinal()))){
+                        dst = ndst;
+                        closest = e;
                     }
                 }
             }
@@ -275,42 +276,34 @@ public class BlockIndexer{
     }
 
     private void updateQuadrant(Tile tile){
-        if(structQuadrants == null) return;
+        if(quadrants == null) return;
 
         //this quadrant is now 'dirty', re-scan the whole thing
         int quadrantX = tile.x / quadrantSize;
         int quadrantY = tile.y / quadrantSize;
         int index = quadrantX + quadrantY * quadWidth();
 
-        for(Team team : Team.all){
-            TeamData data = state.teams.get(team);
-
-            //fast-set this quadrant to 'occupied' if the tile just placed is already of this team
-            if(tile.getTeam() == data.team && tile.entity != null && tile.block().targetable){
-                structQuadrants[data.team.ordinal()].set(quadrantX, quadrantY);
-                continue; //no need to process futher
+        for(Array<TileEntity>[] team : quadrants){
+            if(team[index] != null){
+                team[index].clear();
             }
+        }
 
-            structQuadrants[data.team.ordinal()].set(quadrantX, quadrantY, false);
-
-            outer:
-            for(int x = quadrantX * quadrantSize; x < world.width() && x < (quadrantX + 1) * quadrantSize; x++){
-                for(int y = quadrantY * quadrantSize; y < world.height() && y < (quadrantY + 1) * quadrantSize; y++){
-                    Tile result = world.ltile(x, y);
-                    //when a targetable block is found, mark this quadrant as occupied and stop searching
-                    if(result.entity != null && result.getTeam() == data.team){
-                        structQuadrants[data.team.ordinal()].set(quadrantX, quadrantY);
-                        break outer;
+        for(int x = quadrantX * quadrantSize; x < world.width() && x < (quadrantX + 1) * quadrantSize; x++){
+            for(int y = quadrantY * quadrantSize; y < world.height() && y < (quadrantY + 1) * quadrantSize; y++){
+                Tile result = world.rawTile(x, y);
+                //only the tile holding the entity is indexed, so each multiblock is only added once
+                if(result.entity != null && result.entity.tile == result && result.block().targetable){
+                    Array<TileEntity>[] team = quadrants[result.getTeamID()];
+                    if(team[index] == null){
+                        team[index] = new Array<>();
                     }
+                    team[index].add(result.entity);
                 }
             }
         }
     }
 
-    private boolean getQuad(Team team, int quadrantX, int quadrantY){
-        return structQuadrants[team.ordinal()].get(quadrantX, quadrantY);
-    }
-
     private int quadWidth(){
         return Mathf.ceil(world.width() / (float)quadrantSize);
     }
@@ -0,0 +1,410 @@
+package io.anuke.mindustry.ai;
+
+import io.anuke.arc.collection.*;
+import io.anuke.arc.collection.IntSet.*;
+import io.anuke.arc.math.geom.*;
+import io.anuke.mindustry.game.*;
+import io.anuke.mindustry.gen.*;
+import io.anuke.mindustry.world.*;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.*;
+
+/**
+ * A hierarchical flow field for very large maps.
+ * The map is split into square chunks. Every contiguous run of passable tiles along the border of two chunks is a portal,
+ * which is linked to the portals of the same chunk that can be reached from it inside that chunk.
+ * A coarse distance to the targets is kept for every portal. Tile-level flow fields are only calculated for the chunks that units request,
+ * and lead through the portals that are closest to the targets and reachable from each tile.
+ * Pathfinding thread only, unless noted otherwise.
+ */
+class ChunkFlowField{
+    /** size of a chunk in tiles */
+    static final int chunkSize = 32;
+    /** size of a local field, which includes a one-tile border around its chunk */
+    static final int fieldSize = chunkSize + 2;
+    /** weight of unreached tiles and portals; the same as impassable tiles in full flow fields */
+    static final int unreached = -1;
+
+    final Team team;
+    /** packed tile data of the pathfinder; see PathTileStruct */
+    final int[] tiles;
+    final int width, height, chunksX, chunksY;
+    /** portals on the borders of each chunk, on the side inside that chunk */
+    final Array<Portal>[] portals;
+    /** local flow fields, indexed by chunk; null if not calculated. Read by the main thread. */
+    final AtomicReferenceArray<int[]> fields;
+    /** whether the local field of each chunk has been requested by the main thread; 1 if requested. Written by both threads. */
+    final AtomicIntegerArray requested;
+    /** hash of the border seeds of each local field, used to find fields that are outdated after portal distances change */
+    private final int[] seedHashes;
+
+    private final IntQueue frontier = new IntQueue();
+    private final Queue<Portal> open = new Queue<>();
+    /** field for floods that are only used to link portals or measure distances */
+    private final int[] scratch = new int[fieldSize * fieldSize];
+    private final IntSet dirty = new IntSet(), relink = new IntSet(), targetChunks = new IntSet();
+
+    @SuppressWarnings("unchecked")
+    ChunkFlowField(Team team, int[] tiles, int width, int height){
+        this.team = team;
+        this.tiles = tiles;
+        this.width = width;
+        this.height = height;
+        this.chunksX = (width + chunkSize - 1) / chunkSize;
+        this.chunksY = (height + chunkSize - 1) / chunkSize;
+
+        int chunks = chunksX * chunksY;
+        portals = new Array[chunks];
+        fields = new AtomicReferenceArray<>(chunks);
+        requested = new AtomicIntegerArray(chunks);
+        seedHashes = new int[chunks];
+
+        for(int i = 0; i < chunks; i++){
+            portals[i] = new Array<>();
+        }
+
+        //every border is shared by two chunks, so only the right and top ones are built here
+        for(int i = 0; i < chunks; i++){
+            buildBorder(i, 0);
+            buildBorder(i, 1);
+        }
+
+        for(int i = 0; i < chunks; i++){
+            linkPortals(i);
+        }
+    }
+
+    /** @return the chunk that contains a tile position. */
+    int chunk(int x, int y){
+        return x / chunkSize + y / chunkSize * chunksX;
+    }
+
+    /** @return the index of a tile position in the local field of a chunk. The position must be inside the field. */
+    int fieldIndex(int chunk, int x, int y){
+        return (x - chunk % chunksX * chunkSize + 1) + (y - chunk / chunksX * chunkSize + 1) * fieldSize;
+    }
+
+    /** Updates the portals after some tiles have changed, discarding any local fields that are now outdated. */
+    void updateTiles(IntArray changed, IntArray targets){
+        dirty.clear();
+        relink.clear();
+
+        for(int i = 0; i < changed.size; i++){
+            int index = changed.get(i);
+            dirty.add(chunk(index % width, index / width));
+        }
+
+        //portals on the borders of a changed chunk are shared with its neighbours, which need to be linked again as well
+        IntSetIterator it = dirty.iterator();
+        while(it.hasNext){
+            int chunk = it.next();
+            relink.add(chunk);
+
+            for(int d = 0; d < 4; d++){
+                int other = neighbour(chunk, d);
+                if(other != -1){
+                    buildBorder(chunk, d);
+                    relink.add(other);
+                }
+            }
+        }
+
+        it = relink.iterator();
+        while(it.hasNext){
+            linkPortals(it.next());
+        }
+
+        updateDistances(targets);
+
+        //a tile is also part of the border of up to 8 neighbouring fields
+        for(int i = 0; i < changed.size; i++){
+            int index = changed.get(i);
+            int x = index % width, y = index / width;
+
+            for(int dx = -1; dx <= 1; dx++){
+                for(int dy = -1; dy <= 1; dy++){
+                    int ox = x + dx, oy = y + dy;
+                    if(ox >= 0 && oy >= 0 && ox < width && oy < height){
+                        clearField(chunk(ox, oy));
+                    }
+                }
+            }
+        }
+    }
+
+    /** Recalculates the coarse distance of every portal to the targets, and discards the local fields that lead to portals with changed distances. */
+    void updateDistances(IntArray targets){
+        for(Array<Portal> list : portals){
+            for(int i = 0; i < list.size; i++){
+                list.get(i).distance = unreached;
+            }
+        }
+
+        open.clear();
+        targetChunks.clear();
+        for(int i = 0; i < targets.size; i++){
+            int pos = targets.get(i);
+            targetChunks.add(chunk(Pos.x(pos), Pos.y(pos)));
+        }
+
+        //portals of chunks with targets start with the distance to them inside the chunk
+        IntSetIterator it = targetChunks.iterator();
+        while(it.hasNext){
+            int chunk = it.next();
+
+            Arrays.fill(scratch, unreached);
+            frontier.clear();
+            seedTargets(chunk, scratch, targets);
+            flood(chunk, scratch);
+
+            Array<Portal> list = portals[chunk];
+            for(int i = 0; i < list.size; i++){
+                relax(list.get(i), reach(chunk, scratch, list.get(i)));
+            }
+        }
+
+        while(open.size > 0){
+            Portal portal = open.removeFirst();
+
+            relax(portal.other, portal.distance + portal.other.cost);
+            for(int i = 0; i < portal.links.size; i++){
+                relax(portal.links.get(i), portal.distance + portal.linkCosts.get(i));
+            }
+        }
+
+        //the border of a local field is seeded with the distances of the portals across it
+        for(int chunk = 0; chunk < portals.length; chunk++){
+            Array<Portal> list = portals[chunk];
+            int hash = 0;
+
+            for(int i = 0; i < list.size; i++){
+                Portal other = list.get(i).other;
+                hash += (Pos.get(other.x, other.y) * 31 + other.length) * 31 + other.distance;
+            }
+
+            if(hash != seedHashes[chunk]){
+                seedHashes[chunk] = hash;
+                clearField(chunk);
+            }
+        }
+    }
+
+    /**
+     * Calculates the local field of a chunk. Tiles across its portals are seeded with the distance of their portal,
+     * so the field leads towards targets inside the chunk or through the reachable portal that is closest to the targets.
+     * Tiles that can reach neither are left unreached.
+     */
+    void updateField(int chunk, IntArray targets){
+        //always use a new array, as the old one may currently be read by the main thread
+        int[] field = new int[fieldSize * fieldSize];
+        Arrays.fill(field, unreached);
+        frontier.clear();
+
+        Array<Portal> list = portals[chunk];
+        for(int i = 0; i < list.size; i++){
+            Portal other = list.get(i).other;
+            if(other.distance == unreached) continue;
+
+            for(int j = 0; j < other.length; j++){
+                seed(chunk, field, other.x + other.stepX * j, other.y + other.stepY * j, other.distance);
+            }
+        }
+
+        seedTargets(chunk, field, targets);
+        flood(chunk, field);
+
+        fields.set(chunk, field);
+    }
+
+    /** Discards the local field of a chunk, so that it is recalculated the next time it is requested. */
+    void clearField(int chunk){
+        fields.set(chunk, null);
+        requested.set(chunk, 0);
+    }
+
+    /** Finds the portals along the border of a chunk in a {@link Geometry#d4} direction. Portals on both sides of the border are replaced. */
+    private void buildBorder(int chunk, int d){
+        int other = neighbour(chunk, d);
+        if(other == -1) return;
+
+        removePortals(chunk, d);
+        removePortals(other, (d + 2) % 4);
+
+        Point2 dir = Geometry.d4[d];
+        int x1 = chunk % chunksX * chunkSize, y1 = chunk / chunksX * chunkSize;
+        int x2 = Math.min(x1 + chunkSize, width), y2 = Math.min(y1 + chunkSize, height);
+        //first tile of the border inside this chunk, and the step along it
+        int sx = dir.x > 0 ? x2 - 1 : x1, sy = dir.y > 0 ? y2 - 1 : y1;
+        int stepX = dir.x == 0 ? 1 : 0, stepY = dir.y == 0 ? 1 : 0;
+        int length = dir.x == 0 ? x2 - x1 : y2 - y1;
+        int start = -1, cost = 0, otherCost = 0;
+
+        for(int i = 0; i <= length; i++){
+            int x = sx + stepX * i, y = sy + stepY * i;
+            boolean crossing = i < length && passable(x, y) && passable(x + dir.x, y + dir.y);
+
+            if(crossing){
+                int tileCost = PathTile.cost(tiles[x + y * width]), acrossCost = PathTile.cost(tiles[(x + dir.x) + (y + dir.y) * width]);
+
+                if(start == -1){
+                    start = i;
+                    cost = tileCost;
+                    otherCost = acrossCost;
+                }else{
+                    cost = Math.min(cost, tileCost);
+                    otherCost = Math.min(otherCost, acrossCost);
+                }
+            }else if(start != -1){
+                int px = sx + stepX * start, py = sy + stepY * start;
+                Portal portal = new Portal(d, px, py, stepX, stepY, i - start, cost);
+                Portal across = new Portal((d + 2) % 4, px + dir.x, py + dir.y, stepX, stepY, i - start, otherCost);
+                portal.other = across;
+                across.other = portal;
+
+                portals[chunk].add(portal);
+                portals[other].add(across);
+                start = -1;
+            }
+        }
+    }
+
+    private void removePortals(int chunk, int d){
+        Array<Portal> list = portals[chunk];
+        for(int i = list.size - 1; i >= 0; i--){
+            if(list.get(i).direction == d){
+                list.removeIndex(i);
+            }
+        }
+    }
+
+    /** Links every portal of a chunk to the other portals of the chunk that can be reached from it, along with the cost of getting there. */
+    private void linkPortals(int chunk){
+        Array<Portal> list = portals[chunk];
+
+        for(int i = 0; i < list.size; i++){
+            Portal portal = list.get(i);
+            portal.links.clear();
+            portal.linkCosts.clear();
+
+            Arrays.fill(scratch, unreached);
+            frontier.clear();
+            for(int j = 0; j < portal.length; j++){
+                seed(chunk, scratch, portal.x + portal.stepX * j, portal.y + portal.stepY * j, 0);
+            }
+            flood(chunk, scratch);
+
+            for(int j = 0; j < list.size; j++){
+                Portal other = list.get(j);
+                int cost = reach(chunk, scratch, other);
+
+                if(other != portal && cost != unreached){
+                    portal.links.add(other);
+                    portal.linkCosts.add(cost);
+                }
+            }
+        }
+    }
+
+    /** Lowers the distance of a portal, queueing it to update the portals it leads to. */
+    private void relax(Portal portal, int distance){
+        if(distance != unreached && (portal.distance == unreached || distance < portal.distance)){
+            portal.distance = distance;
+            open.addLast(portal);
+        }
+    }
+
+    /** @return the lowest weight of any tile of a portal inside a flooded chunk, or {@link #unreached}. */
+    private int reach(int chunk, int[] field, Portal portal){
+        int min = unreached;
+        for(int i = 0; i < portal.length; i++){
+            int weight = field[fieldIndex(chunk, portal.x + portal.stepX * i, portal.y + portal.stepY * i)];
+            if(weight != unreached && (min == unreached || weight < min)){
+                min = weight;
+            }
+        }
+        return min;
+    }
+
+    /** Seeds all targets inside the local field of a chunk with a weight of 0. */
+    private void seedTargets(int chunk, int[] field, IntArray targets){
+        int ox = chunk % chunksX * chunkSize - 1, oy = chunk / chunksX * chunkSize - 1;
+
+        for(int i = 0; i < targets.size; i++){
+            int pos = targets.get(i);
+            int x = Pos.x(pos) - ox, y = Pos.y(pos) - oy;
+
+            if(x >= 0 && y >= 0 && x < fieldSize && y < fieldSize){
+                field[x + y * fieldSize] = 0;
+                frontier.addFirst(x + y * fieldSize);
+            }
+        }
+    }
+
+    private void seed(int chunk, int[] field, int x, int y, int weight){
+        int index = fieldIndex(chunk, x, y);
+        field[index] = weight;
+        frontier.addFirst(index);
+    }
+
+    /** Floods the inside of a chunk from the positions in the frontier. The border of the field keeps its seeded weights. */
+    private void flood(int chunk, int[] field){
+        int ox = chunk % chunksX * chunkSize - 1, oy = chunk / chunksX * chunkSize - 1;
+
+        while(frontier.size > 0){
+            int index = frontier.removeLast();
+            int x = index % fieldSize, y = index / fieldSize, cost = field[index];
+
+            for(Point2 point : Geometry.d4){
+                int nx = x + point.x, ny = y + point.y;
+                if(nx < 1 || ny < 1 || nx >= fieldSize - 1 || ny >= fieldSize - 1 || ox + nx >= width || oy + ny >= height) continue;
+
+                int tile = tiles[(ox + nx) + (oy + ny) * width];
+                int other = nx + ny * fieldSize;
+                int next = cost + PathTile.cost(tile);
+
+                if((field[other] == unreached || next < field[other]) && Pathfinder.canPass(tile, team)){
+                    field[other] = next;
+                    frontier.addFirst(other);
+                }
+            }
+        }
+    }
+
+    /** @return the chunk next to a chunk in a {@link Geometry#d4} direction, or -1 if it is outside the map. */
+    private int neighbour(int chunk, int d){
+        int x = chunk % chunksX + Geometry.d4[d].x, y = chunk / chunksX + Geometry.d4[d].y;
+        return x < 0 || y < 0 || x >= chunksX || y >= chunksY ? -1 : x + y * chunksX;
+    }
+
+    private boolean passable(int x, int y){
+        return Pathfinder.canPass(tiles[x + y * width], team);
+    }
+
+    /** One side of a contiguous run of passable tiles along the border of two chunks. */
+    static class Portal{
+        /** {@link Geometry#d4} direction of the border, seen from the chunk this side is in */
+        final int direction;
+        /** first tile, step between tiles and amount of tiles */
+        final int x, y, stepX, stepY, length;
+        /** lowest cost of entering any tile of this side */
+        final int cost;
+        /** portals of the same chunk that can be reached from this one, and the cost of reaching them */
+        final Array<Portal> links = new Array<>();
+        final IntArray linkCosts = new IntArray();
+        /** side of the run in the neighbouring chunk */
+        Portal other;
+        /** coarse cost of getting from this side to the targets */
+        int distance = unreached;
+
+        Portal(int direction, int x, int y, int stepX, int stepY, int length, int cost){
+            this.direction = direction;
+            this.x = x;
+            this.y = y;
+            this.stepX = stepX;
+            this.stepY = stepY;
+            this.length = length;
+            this.cost = cost;
+        }
+    }
+}
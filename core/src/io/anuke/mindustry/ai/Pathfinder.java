@@ -4,6 +4,7 @@ import io.anuke.annotations.Annotations.*;
 import io.anuke.arc.*;
 import io.anuke.arc.collection.*;
 import io.anuke.arc.func.*;
+import io.anuke.arc.math.*;
 import io.anuke.arc.math.geom.*;
 import io.anuke.arc.util.*;
 import io.anuke.arc.util.ArcAnnotate.*;
@@ -14,6 +15,9 @@ import io.anuke.mindustry.gen.*;
 import io.anuke.mindustry.world.*;
 import io.anuke.mindustry.world.meta.*;
 
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+
 import static io.anuke.mindustry.Vars.*;
 
 public class Pathfinder implements Runnable{
@@ -22,33 +26,55 @@ public class Pathfinder implements Runnable{
     private static final int updateInterval = 1000 / updateFPS;
     private static final int impassable = -1;
 
-    /** tile data, see PathTileStruct */
-    private int[][] tiles;
+    /** Maps with at least this many tiles use chunked flow fields, which need far less memory but give less optimal paths. */
+    public int chunkedArea = 500 * 500;
+
+    /** tile data, see PathTileStruct; indexed by x + y * width. Only written on the pathfinding thread, between frontier updates. */
+    private int[] tiles;
+    /** world size at the time the tile data was created */
+    private int width, height;
+    /** whether paths for the current world are chunked, see {@link ChunkFlowField} */
+    private boolean chunked;
+    /** index offsets of the neighbours in {@link Geometry#d4} */
+    private int[] neighbours = neighbourOffsets(0);
     /** unordered array of path data for iteration only. DO NOT iterate ot access this in the main thread.*/
     private Array<PathData> list = new Array<>();
     /** Maps teams + flags to a valid path to get to that flag for that team. */
     private PathData[][] pathMap = new PathData[Team.all.length][PathTarget.all.length];
     /** Grid map of created path data that should not be queued again. */
     private GridBits created = new GridBits(Team.all.length, PathTarget.all.length);
+    /** positions invalidated by the last flow field repair. Pathfinding thread only. */
+    private IntArray invalidated = new IntArray();
+    /** invalidated positions that still need their dependents checked. Pathfinding thread only. */
+    private IntArray repairStack = new IntArray();
     /** handles task scheduling on the update thread. */
     private TaskQueue queue = new TaskQueue();
+    /** runs frontier updates, one task per path. These tasks only read tile data, which is never written while they run. */
+    private AsyncExecutor executor = new AsyncExecutor(Mathf.clamp(Runtime.getRuntime().availableProcessors() - 1, 1, 4));
     /** current pathfinding thread */
-    private @Nullable
-    Thread thread;
+    @Nullable Thread thread;
+    /** number of completed iterations of the pathfinding thread */
+    volatile int passes;
+    /** whether every flow field had converged after the last iteration */
+    volatile boolean converged;
 
     public Pathfinder(){
         Events.on(WorldLoadEvent.class, event -> {
             stop();
 
             //reset and update internal tile array
-            tiles = new int[world.width()][world.height()];
+            width = world.width();
+            height = world.height();
+            chunked = width * height >= chunkedArea;
+            tiles = new int[width * height];
+            neighbours = neighbourOffsets(width);
             pathMap = new PathData[Team.all.length][PathTarget.all.length];
             created = new GridBits(Team.all.length, PathTarget.all.length);
             list = new Array<>();
 
-            for(int x = 0; x < world.width(); x++){
-                for(int y = 0; y < world.height(); y++){
-                    tiles[x][y] = packTile(world.rawTile(x, y));
+            for(int y = 0; y < height; y++){
+                for(int x = 0; x < width; x++){
+                    tiles[x + y * width] = packTile(world.rawTile(x, y));
                 }
             }
 
@@ -74,29 +100,43 @@ public class Pathfinder implements Runnable{
         thread = Threads.daemon(this);
     }
 
-    /** Stops the pathfinding thread. */
+    /** Stops the pathfinding thread, waiting for any running frontier updates to finish. */
     private void stop(){
         if(thread != null){
             thread.interrupt();
+            try{
+                thread.join();
+            }catch(InterruptedException ignored){
+            }
             thread = null;
         }
         queue.clear();
     }
 
     public int debugValue(Team team, int x, int y){
-        if(pathMap[team.ordinal()][PathTarget.enemyCores.ordinal()] == null) return 0;
-        return pathMap[team.ordinal()][PathTarget.enemyCores.ordinal()].weights[x][y];
+        PathData data = pathMap[team.ordinal()][PathTarget.enemyCores.ordinal()];
+        if(data == null) return 0;
+
+        if(data.chunks != null){
+            int chunk = data.chunks.chunk(x, y);
+            int[] field = data.chunks.fields.get(chunk);
+            return field == null ? 0 : field[data.chunks.fieldIndex(chunk, x, y)];
+        }
+
+        return data.weights[x + y * width];
     }
 
-    /** Update a tile in the internal pathfinding grid. Causes a complete pathfinding reclaculation. */
+    /** Update a tile in the internal pathfinding grid. Only the flow field region that depended on the tile is recalculated. */
     public void updateTile(Tile tile){
         if(net.client()) return;
 
-        int x = tile.x, y = tile.y;
+        IntArray changed = new IntArray(), packed = new IntArray();
 
+        //tiles are packed here, but only applied on the pathfinding thread while no frontier updates are running
         tile.getLinkedTiles(t -> {
-            if(Structs.inBounds(t.x, t.y, tiles)){
-                tiles[t.x][t.y] = packTile(t);
+            if(inBounds(t.x, t.y)){
+                changed.add(t.x + t.y * width);
+                packed.add(packTile(t));
             }
         });
 
@@ -113,8 +153,12 @@ public class Pathfinder implements Runnable{
         }
 
         queue.post(() -> {
+            for(int i = 0; i < changed.size; i++){
+                tiles[changed.get(i)] = packed.get(i);
+            }
+
             for(PathData data : list){
-                updateTargets(data, x, y);
+                updateTargets(data, changed);
             }
         });
     }
@@ -128,11 +172,14 @@ public class Pathfinder implements Runnable{
 
                 queue.run();
 
-                //total update time no longer than maxUpdate
-                for(PathData data : list){
-                    updateFrontier(data, maxUpdate / list.size);
+                //each path updates on its own worker for no longer than maxUpdate
+                if(!updateFrontiers()){
+                    return;
                 }
 
+                converged = frontiersEmpty();
+                passes++;
+
                 try{
                     Thread.sleep(updateInterval);
                 }catch(InterruptedException e){
@@ -145,6 +192,47 @@ public class Pathfinder implements Runnable{
         }
     }
 
+    /**
+     * Updates the frontiers of all paths in parallel and waits for them to finish.
+     * Paths are only modified by their own task. Tile changes are applied by queued tasks before this, never while these tasks run.
+     * @return false if the thread was interrupted.
+     */
+    private boolean updateFrontiers(){
+        CountDownLatch latch = new CountDownLatch(list.size);
+
+        for(PathData data : list){
+            executor.submit(() -> {
+                try{
+                    updateFrontier(data, maxUpdate);
+                }catch(Exception e){
+                    e.printStackTrace();
+                }finally{
+                    latch.countDown();
+                }
+            });
+        }
+
+        boolean interrupted = false;
+
+        //the tasks must always finish before the thread exits, as they read the tile data of the current world
+        while(true){
+            try{
+                latch.await();
+                return !interrupted;
+            }catch(InterruptedException e){
+                interrupted = true;
+            }
+        }
+    }
+
+    /** @return whether no flow field has any frontier left to update. Pathfinding thread only. */
+    private boolean frontiersEmpty(){
+        for(PathData data : list){
+            if(data.frontier.size > 0) return false;
+        }
+        return true;
+    }
+
     /** Gets next tile to travel to. Main thread only. */
     public Tile getTargetTile(Tile tile, Team team, PathTarget target){
         if(tile == null) return null;
@@ -162,8 +250,25 @@ public class Pathfinder implements Runnable{
             return tile;
         }
 
-        int[][] values = data.weights;
-        int value = values[tile.x][tile.y];
+        int[] values = data.weights;
+        ChunkFlowField chunks = data.chunks;
+        int chunk = 0;
+
+        if(chunks != null){
+            chunk = chunks.chunk(tile.x, tile.y);
+            values = chunks.fields.get(chunk);
+
+            //only calculate local fields of chunks that units are in
+            if(values == null){
+                if(chunks.requested.compareAndSet(chunk, 0, 1)){
+                    int requested = chunk;
+                    queue.post(() -> chunks.updateField(requested, data.sources));
+                }
+                return tile;
+            }
+        }
+
+        int value = values[chunks == null ? tile.x + tile.y * width : chunks.fieldIndex(chunk, tile.x, tile.y)];
 
         Tile current = null;
         int tl = 0;
@@ -173,59 +278,123 @@ public class Pathfinder implements Runnable{
             Tile other = world.tile(dx, dy);
             if(other == null) continue;
 
-            if(values[dx][dy] < value && (current == null || values[dx][dy] < tl) && !other.solid() && other.floor().drownTime <= 0 &&
+            int index = chunks == null ? dx + dy * width : chunks.fieldIndex(chunk, dx, dy);
+
+            if(values[index] != impassable && values[index] < value && (current == null || values[index] < tl) && !other.solid() && other.floor().drownTime <= 0 &&
             !(point.x != 0 && point.y != 0 && (world.solid(tile.x + point.x, tile.y) || world.solid(tile.x, tile.y + point.y)))){ //diagonal corner trap
                 current = other;
-                tl = values[dx][dy];
+                tl = values[index];
             }
         }
 
-        if(current == null || tl == impassable) return tile;
+        if(current == null) return tile;
 
         return current;
     }
 
-    /** @return whether a tile can be passed through by this team. Pathfinding thread only.*/
-    private boolean passable(int x, int y, Team team){
-        int tile = tiles[x][y];
+    /** @return whether a tile position is inside the pathfinding grid. */
+    private boolean inBounds(int x, int y){
+        return x >= 0 && y >= 0 && x < width && y < height;
+    }
+
+    /** @return whether a packed tile can be passed through by this team. */
+    public static boolean canPass(int tile, Team team){
         return PathTile.passable(tile) || (PathTile.team(tile) != team.ordinal() && PathTile.team(tile) != Team.derelict.ordinal());
     }
 
     /**
-     * Clears the frontier, increments the search and sets up all flow sources.
-     * This only occurs for active teams.
+     * Repairs a flow field after some tiles have changed.
+     * Every tile whose weight was derived from a changed tile (or from a target that no longer exists) is invalidated,
+     * and the frontier is re-seeded from the edges of the invalidated region and from the current targets.
+     * Pathfinding thread only.
      */
-    private void updateTargets(PathData path, int x, int y){
-        if(!Structs.inBounds(x, y, path.weights)) return;
-
-        if(path.weights[x][y] == 0){
-            //this was a previous target
-            path.frontier.clear();
-        }else if(!path.frontier.isEmpty()){
-            //skip if this path is processing
+    private void updateTargets(PathData path, IntArray changed){
+        if(path.chunks != null){
+            synchronized(path.targets){
+                path.sources.clear();
+                path.sources.addAll(path.targets);
+            }
+
+            path.chunks.updateTiles(changed, path.sources);
             return;
         }
 
-        //assign impassability to the tile
-        if(!passable(x, y, path.team)){
-            path.weights[x][y] = impassable;
-        }
+        IntArray stack = repairStack;
+        stack.clear();
+        invalidated.clear();
 
-        //increment search, clear frontier
-        path.search++;
-        path.frontier.clear();
+        //changed tiles are always invalidated, even if they were not reachable before
+        for(int i = 0; i < changed.size; i++){
+            invalidate(path, changed.get(i), true);
+        }
 
         synchronized(path.targets){
-            //add targets
-            for(int i = 0; i < path.targets.size; i++){
-                int pos = path.targets.get(i);
-                int tx = Pos.x(pos), ty = Pos.y(pos);
-
-                path.weights[tx][ty] = 0;
-                path.searches[tx][ty] = (short)path.search;
-                path.frontier.addFirst(pos);
+            //targets that were removed no longer provide a source of 0 cost
+            for(int i = 0; i < path.sources.size; i++){
+                int pos = path.sources.get(i);
+                if(!path.targets.contains(pos)){
+                    invalidate(path, Pos.x(pos) + Pos.y(pos) * width, false);
+                }
+            }
+
+            path.sources.clear();
+            path.sources.addAll(path.targets);
+        }
+
+        //find all tiles that depend on the invalidated tiles
+        while(stack.size > 0){
+            int index = stack.pop();
+            int weight = path.weights[index];
+
+            if(weight == impassable) continue;
+
+            for(int i = 0; i < 4; i++){
+                int other = index + neighbours[i];
+
+                if(inBounds(index % width + Geometry.d4[i].x, index / width + Geometry.d4[i].y) &&
+                    path.valid.get(other) && path.weights[other] == weight + PathTile.cost(tiles[other])){
+                    invalidate(path, other, false);
+                }
+            }
+        }
+
+        //clear invalid weights; the invalid flag makes sure they get overwritten by the frontier
+        for(int i = 0; i < invalidated.size; i++){
+            path.weights[invalidated.get(i)] = impassable;
+        }
+
+        //re-seed the frontier from valid tiles bordering the invalidated region
+        for(int i = 0; i < invalidated.size; i++){
+            int index = invalidated.get(i);
+            int x = index % width, y = index / width;
+
+            for(int d = 0; d < 4; d++){
+                int other = index + neighbours[d];
+
+                if(inBounds(x + Geometry.d4[d].x, y + Geometry.d4[d].y) && path.valid.get(other) && path.weights[other] != impassable){
+                    path.frontier.addFirst(other);
+                }
             }
         }
+
+        //add targets
+        for(int i = 0; i < path.sources.size; i++){
+            int pos = path.sources.get(i);
+            int index = Pos.x(pos) + Pos.y(pos) * width;
+
+            path.weights[index] = 0;
+            path.valid.set(index);
+            path.frontier.addFirst(index);
+        }
+    }
+
+    /** Marks a tile as invalid and queues it for dependency checking. Its weight is kept until the dependency search is complete. */
+    private void invalidate(PathData path, int index, boolean force){
+        if(!force && !path.valid.get(index)) return;
+
+        path.valid.clear(index);
+        repairStack.add(index);
+        invalidated.add(index);
     }
 
     private void preloadPath(Team team, PathTarget target){
@@ -235,7 +404,7 @@ public class Pathfinder implements Runnable{
     /** Created a new flowfield that aims to get to a certain target for a certain team.
      * Pathfinding thread only. */
     private PathData createPath(Team team, PathTarget target, IntArray targets){
-        PathData path = new PathData(team, target, world.width(), world.height());
+        PathData path = new PathData(team, target, width, height, chunked ? new ChunkFlowField(team, tiles, width, height) : null);
 
         list.add(path);
         pathMap[team.ordinal()][target.ordinal()] = path;
@@ -245,19 +414,24 @@ public class Pathfinder implements Runnable{
             path.targets.clear();
             path.targets.addAll(targets);
         }
+        path.sources.addAll(targets);
 
-        //fill with impassables by default
-        for(int x = 0; x < world.width(); x++){
-            for(int y = 0; y < world.height(); y++){
-                path.weights[x][y] = impassable;
-            }
+        if(path.chunks != null){
+            path.chunks.updateDistances(targets);
+            return path;
         }
 
+        //fill with impassables by default
+        Arrays.fill(path.weights, impassable);
+
         //add targets
-        for(int i = 0; i < path.targets.size; i++){
-            int pos = path.targets.get(i);
-            path.weights[Pos.x(pos)][Pos.y(pos)] = 0;
-            path.frontier.addFirst(pos);
+        for(int i = 0; i < targets.size; i++){
+            int pos = targets.get(i);
+            int index = Pos.x(pos) + Pos.y(pos) * width;
+
+            path.weights[index] = 0;
+            path.valid.set(index);
+            path.frontier.addFirst(index);
         }
 
         return path;
@@ -265,30 +439,54 @@ public class Pathfinder implements Runnable{
 
     /** Update the frontier for a path. Pathfinding thread only. */
     private void updateFrontier(PathData path, long nsToRun){
+        updateFrontier(tiles, width, height, neighbours, path.team, path.weights, path.valid, path.frontier, nsToRun);
+    }
+
+    /** @return the index offsets of the neighbours in {@link Geometry#d4}, for tile data of a certain width. */
+    public static int[] neighbourOffsets(int width){
+        int[] offsets = new int[4];
+        for(int i = 0; i < 4; i++){
+            offsets[i] = Geometry.d4[i].x + Geometry.d4[i].y * width;
+        }
+        return offsets;
+    }
+
+    /**
+     * Expands a flow field frontier over packed tile data. Does not touch the world, so it can also be benchmarked on its own.
+     * @param tiles packed tile data, see PathTileStruct; indexed by x + y * width
+     * @param offsets index offsets of the neighbours of a tile, see {@link #neighbourOffsets(int)}
+     * @param valid whether each weight is up to date; invalid weights are always overwritten
+     * @param nsToRun maximum time to run for, or a negative value to run until the frontier is empty
+     */
+    public static void updateFrontier(int[] tiles, int width, int height, int[] offsets, Team team, int[] weights, Bits valid, IntQueue frontier, long nsToRun){
         long start = Time.nanos();
 
-        while(path.frontier.size > 0 && (nsToRun < 0 || Time.timeSinceNanos(start) <= nsToRun)){
-            Tile tile = world.tile(path.frontier.removeLast());
-            if(tile == null || path.weights == null) return; //something went horribly wrong, bail
-            int cost = path.weights[tile.x][tile.y];
+        while(frontier.size > 0 && (nsToRun < 0 || Time.timeSinceNanos(start) <= nsToRun)){
+            int index = frontier.removeLast();
+            if(index < 0 || index >= weights.length) return; //something went horribly wrong, bail
+            int cost = weights[index];
 
             //pathfinding overflowed for some reason, time to bail. the next block update will handle this, hopefully
-            if(path.frontier.size >= world.width() * world.height()){
-                path.frontier.clear();
+            if(frontier.size >= weights.length){
+                frontier.clear();
                 return;
             }
 
             if(cost != impassable){
-                for(Point2 point : Geometry.d4){
+                int x = index % width, y = index / width;
+
+                for(int i = 0; i < 4; i++){
+                    int nx = x + Geometry.d4[i].x, ny = y + Geometry.d4[i].y;
+                    if(nx < 0 || ny < 0 || nx >= width || ny >= height) continue;
 
-                    int dx = tile.x + point.x, dy = tile.y + point.y;
-                    Tile other = world.tile(dx, dy);
+                    int other = index + offsets[i];
+                    int otherCost = PathTile.cost(tiles[other]);
 
-                    if(other != null && (path.weights[dx][dy] > cost + other.cost || path.searches[dx][dy] < path.search) && passable(dx, dy, path.team)){
-                        if(other.cost < 0) throw new IllegalArgumentException("Tile cost cannot be negative! " + other);
-                        path.frontier.addFirst(Pos.get(dx, dy));
-                        path.weights[dx][dy] = cost + other.cost;
-                        path.searches[dx][dy] = (short)path.search;
+                    if((weights[other] > cost + otherCost || !valid.get(other)) && canPass(tiles[other], team)){
+                        if(otherCost < 0) throw new IllegalArgumentException("Tile cost cannot be negative! (" + nx + ", " + ny + ")");
+                        frontier.addFirst(other);
+                        weights[other] = cost + otherCost;
+                        valid.set(other);
                     }
                 }
             }
@@ -336,24 +534,32 @@ public class Pathfinder implements Runnable{
         final Team team;
         /** Flag that is being targeted. */
         final PathTarget target;
-        /** costs of getting to a specific tile */
-        final int[][] weights;
-        /** search IDs of each position - the highest, most recent search is prioritized and overwritten */
-        final short[][] searches;
-        /** search frontier, these are Pos objects */
+        /** costs of getting to a specific tile, indexed by x + y * width; null if chunked */
+        final int[] weights;
+        /** whether the weight of each position is up to date; invalid positions are always overwritten. null if chunked */
+        final Bits valid;
+        /** chunked flow field used instead of the weights on large maps */
+        final @Nullable ChunkFlowField chunks;
+        /** search frontier, these are tile indices */
         final IntQueue frontier = new IntQueue();
         /** all target positions; these positions have a cost of 0, and must be synchronized on! */
         final IntArray targets = new IntArray();
-        /** current search ID */
-        int search = 1;
+        /** targets that were last used to seed the frontier. Pathfinding thread only. */
+        final IntArray sources = new IntArray();
 
-        PathData(Team team, PathTarget target, int width, int height){
+        PathData(Team team, PathTarget target, int width, int height, @Nullable ChunkFlowField chunks){
             this.team = team;
             this.target = target;
-
-            this.weights = new int[width][height];
-            this.searches = new short[width][height];
-            this.frontier.ensureCapacity((width + height) * 3);
+            this.chunks = chunks;
+
+            if(chunks == null){
+                this.weights = new int[width * height];
+                this.valid = new Bits(width * height);
+                this.frontier.ensureCapacity((width + height) * 3);
+            }else{
+                this.weights = null;
+                this.valid = null;
+            }
         }
     }
 
@@ -2,6 +2,7 @@ package io.anuke.mindustry.core;
 
 import io.anuke.annotations.Annotations.*;
 import io.anuke.arc.*;
+import io.anuke.arc.collection.Array;
 import io.anuke.arc.util.*;
 import io.anuke.mindustry.content.*;
 import io.anuke.mindustry.core.GameState.*;
@@ -31,6 +32,12 @@ import static io.anuke.mindustry.Vars.*;
  * This class should <i>not</i> call any outside methods to change state of modules, but instead fire events.
  */
 public class Logic implements ApplicationListener{
+    /** Groups that bullets collide with, gathered every frame. */
+    private final Array<EntityGroup<?>> bulletTargets = new Array<>();
+    /** Runs the compute phase of unit updates and power graph solving on worker threads; created when parallel updates are first enabled. */
+    private ParallelUpdater parallel;
+    /** Whether unit updates and power graph solving run in parallel; read from the settings once, see {@link #setParallelUpdates(boolean)}. */
+    private boolean parallelUpdates = Core.settings.getBool("parallelupdates", false);
 
     public Logic(){
         Events.on(WaveEvent.class, event -> {
@@ -130,6 +137,7 @@ public class Logic implements ApplicationListener{
         entities.clear();
         Time.clear();
         TileEntity.sleepingEntities = 0;
+        PowerGraph.clearAll();
 
         Events.fire(new ResetEvent());
     }
@@ -208,6 +216,41 @@ public class Logic implements ApplicationListener{
         netClient.setQuiet();
     }
 
+    public boolean isParallelUpdates(){
+        return parallelUpdates;
+    }
+
+    /** Enables or disables parallel updates, and saves the choice. */
+    public void setParallelUpdates(boolean parallelUpdates){
+        this.parallelUpdates = parallelUpdates;
+        Core.settings.putSave("parallelupdates", parallelUpdates);
+    }
+
+    /**
+     * Runs the compute phase of all unit groups before their regular update.
+     * Spatial indices are brought up to date first, so that all workers see the same positions.
+     */
+    private void updateParallel(){
+        if(parallel == null){
+            parallel = new ParallelUpdater();
+        }
+
+        for(Team team : Team.all){
+            EntityGroup<BaseUnit> group = unitGroups[team.ordinal()];
+            group.updateEvents();
+            collisions.updatePhysics(group);
+
+            //register team data now, instead of lazily from several workers at once
+            if(!group.isEmpty()){
+                state.teams.get(team);
+            }
+        }
+
+        for(EntityGroup<?> group : unitGroups){
+            parallel.compute(group);
+        }
+    }
+
     @Override
     public void update(){
 
@@ -232,13 +275,22 @@ public class Logic implements ApplicationListener{
                 }
 
                 if(!state.isEditor()){
-                    for(EntityGroup group : unitGroups){
-                        group.update();
+                    if(parallelUpdates){
+                        //events and physics have already been updated before the compute phase
+                        updateParallel();
+                        for(EntityGroup group : unitGroups){
+                            group.updateEntities();
+                        }
+                    }else{
+                        for(EntityGroup group : unitGroups){
+                            group.update();
+                        }
                     }
 
                     puddleGroup.update();
                     shieldGroup.update();
-                    bulletGroup.update();
+                    Bullet.updateAll(bulletGroup);
+                    PowerGraph.updateAll(parallelUpdates ? parallel : null);
                     tileGroup.update();
                     fireGroup.update();
                 }else{
@@ -257,13 +309,15 @@ public class Logic implements ApplicationListener{
                 }
 
                 if(!state.isEditor()){
+                    bulletTargets.clear();
 
-                    for(EntityGroup group : unitGroups){
+                    for(EntityGroup<?> group : unitGroups){
                         if(group.isEmpty()) continue;
-                        collisions.collideGroups(bulletGroup, group);
+                        bulletTargets.add(group);
                     }
 
-                    collisions.collideGroups(bulletGroup, playerGroup);
+                    bulletTargets.add(playerGroup);
+                    collisions.collideGroups(bulletGroup, bulletTargets);
                 }
             }
 
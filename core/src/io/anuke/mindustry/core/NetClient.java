@@ -28,6 +28,7 @@ import io.anuke.mindustry.world.*;
 import io.anuke.mindustry.world.modules.*;
 
 import java.io.*;
+import java.util.Arrays;
 import java.util.zip.*;
 
 import static io.anuke.mindustry.Vars.*;
@@ -55,6 +56,16 @@ public class NetClient implements ApplicationListener{
     /** Byte stream for reading in snapshots. */
     private ReusableByteInStream byteStream = new ReusableByteInStream();
     private DataInputStream dataStream = new DataInputStream(byteStream);
+    /** Byte stream for reading in the state of a single entity. */
+    private ReusableByteInStream stateStream = new ReusableByteInStream();
+    private DataInputStream stateData = new DataInputStream(stateStream);
+
+    /** Recently recieved states of each synced entity, used as the bases for applying deltas. */
+    private IntMap<Baselines> baselines = new IntMap<>();
+    /** ID of the last recieved keyframe snapshot. */
+    private int lastKeyframe = -1;
+    /** Whether a delta could not be applied since the last keyframe. */
+    private boolean desynced;
 
     public NetClient(){
 
@@ -126,6 +137,8 @@ public class NetClient implements ApplicationListener{
             finishConnecting();
         });
 
+        net.handleClient(EntitySnapshotPacket.class, this::readEntitySnapshot);
+
         net.handleClient(InvokePacket.class, packet -> {
             packet.writeBuffer.position(0);
             RemoteReadClient.readPacket(packet.writeBuffer, packet.type);
@@ -264,6 +277,7 @@ public class NetClient implements ApplicationListener{
     public static void onWorldDataBegin(){
         entities.clear();
         netClient.removed.clear();
+        netClient.clearBaselines();
         logic.reset();
 
         ui.chatfrag.clearMessages();
@@ -290,18 +304,53 @@ public class NetClient implements ApplicationListener{
         playerGroup.removeByID(playerid);
     }
 
-    @Remote(variants = Variant.one, priority = PacketPriority.low, unreliable = true)
-    public static void onEntitySnapshot(byte groupID, short amount, short dataLen, byte[] data){
+    private void readEntitySnapshot(EntitySnapshotPacket packet){
+        int snapshotID = packet.snapshotID;
         try{
-            netClient.byteStream.setBytes(net.decompressSnapshot(data, dataLen));
-            DataInputStream input = netClient.dataStream;
+            byteStream.setBytes(net.decompressSnapshot(packet.data, packet.dataLen));
+            DataInputStream input = dataStream;
+
+            EntityGroup group = entities.get(packet.groupID);
 
-            EntityGroup group = entities.get(groupID);
+            if(packet.keyframe && snapshotID >= lastKeyframe){
+                lastKeyframe = snapshotID;
+                desynced = false;
+            }
 
             //go through each entity
-            for(int j = 0; j < amount; j++){
+            for(int j = 0; j < packet.amount; j++){
                 int id = input.readInt();
-                byte typeID = input.readByte();
+                byte recordType = input.readByte();
+                byte typeID = -1;
+                byte[] state;
+
+                if(recordType == EntityDelta.full){
+                    typeID = input.readByte();
+                    state = new byte[input.readUnsignedShort()];
+                    input.readFully(state);
+                }else{
+                    //only the lower bits of the base ID are sent; bases are always recent
+                    short baseID = input.readShort();
+                    Baselines history = baselines.get(id);
+                    byte[] base = history == null ? null : history.get(snapshotID - (short)(snapshotID - baseID));
+                    state = recordType == EntityDelta.delta ? EntityDelta.read(input, base) : base;
+
+                    //the base this delta was made from was never recieved, so a keyframe is needed
+                    if(state == null){
+                        //entities that have already been removed don't need a keyframe
+                        if(group == null || group.getByID(id) != null || !isEntityUsed(id)){
+                            desynced = true;
+                        }
+                        continue;
+                    }
+                }
+
+                Baselines history = baselines.get(id);
+                if(history == null){
+                    history = new Baselines();
+                    baselines.put(id, history);
+                }
+                history.put(snapshotID, state);
 
                 SyncTrait entity = group == null ? null : (SyncTrait)group.getByID(id);
                 boolean add = false, created = false;
@@ -313,16 +362,23 @@ public class NetClient implements ApplicationListener{
 
                 //entity must not be added yet, so create it
                 if(entity == null){
+                    //deltas can't create entities, as they don't contain the type
+                    if(typeID == -1){
+                        desynced = true;
+                        continue;
+                    }
+
                     entity = (SyncTrait)content.<TypeID>getByID(ContentType.typeid, typeID).constructor.get();
                     entity.resetID(id);
-                    if(!netClient.isEntityUsed(entity.getID())){
+                    if(!isEntityUsed(entity.getID())){
                         add = true;
                     }
                     created = true;
                 }
 
                 //read the entity
-                entity.read(input);
+                stateStream.setBytes(state);
+                entity.read(stateData);
 
                 if(created && entity.getInterpolator() != null && entity.getInterpolator().target != null){
                     //set initial starting position
@@ -334,29 +390,65 @@ public class NetClient implements ApplicationListener{
 
                 if(add){
                     entity.add();
-                    netClient.addRemovedEntity(entity.getID());
+                    addRemovedEntity(entity.getID());
                 }
             }
+
+            //the server only makes deltas from states that are known to have arrived
+            Call.onEntitySnapshotAck(packet.packetID);
+        }catch(IOException e){
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Remote(variants = Variant.one)
+    public static void onEntityDespawn(short amount, short dataLen, byte[] data){
+        try{
+            netClient.byteStream.setBytes(net.decompressSnapshot(data, dataLen));
+            DataInputStream input = netClient.dataStream;
+
+            for(int j = 0; j < amount; j++){
+                byte groupID = input.readByte();
+                int id = input.readInt();
+
+                EntityGroup group = entities.get(groupID);
+                //entities that have already been removed are dead, and must stay removed
+                if(group == null || id == player.id || group.getByID(id) == null) continue;
+
+                group.removeByID(id);
+                //the entity has only left the view, so it may be added again later
+                netClient.removed.remove(id);
+                netClient.removeBaseline(id);
+            }
         }catch(IOException e){
             throw new RuntimeException(e);
         }
     }
 
-    @Remote(variants = Variant.both, priority = PacketPriority.low, unreliable = true)
-    public static void onBlockSnapshot(short amount, short dataLen, byte[] data){
+    @Remote(variants = Variant.one, priority = PacketPriority.low, unreliable = true)
+    public static void onBlockSnapshot(int snapshotID, short amount, short dataLen, byte[] data){
         try{
             netClient.byteStream.setBytes(net.decompressSnapshot(data, dataLen));
             DataInputStream input = netClient.dataStream;
 
             for(int i = 0; i < amount; i++){
                 int pos = input.readInt();
+                int length = input.readUnsignedShort();
                 Tile tile = world.tile(pos);
                 if(tile == null || tile.entity == null){
-                    Log.warn("Missing entity at {0}. Skipping block snapshot.", tile);
-                    break;
+                    Log.warn("Missing entity at {0}. Skipping block.", tile);
+                    input.skipBytes(length);
+                    continue;
                 }
+
+                //skip whatever the entity did not read, in case its block is different here
+                int remaining = input.available() - length;
                 tile.entity.read(input, tile.entity.version());
+                input.skipBytes(input.available() - remaining);
             }
+
+            //blocks without an entity here can't be applied by sending them again, so the whole snapshot is acknowledged
+            Call.onBlockSnapshotAck(snapshotID);
         }catch(Exception e){
             e.printStackTrace();
         }
@@ -436,6 +528,7 @@ public class NetClient implements ApplicationListener{
     private void reset(){
         net.setClientLoaded(false);
         removed.clear();
+        clearBaselines();
         timeoutTime = 0f;
         connecting = true;
         quietReset = false;
@@ -475,6 +568,17 @@ public class NetClient implements ApplicationListener{
         return removed.contains(id);
     }
 
+    /** Forgets the recieved states of an entity, so they can't be used for deltas. */
+    public void removeBaseline(int id){
+        baselines.remove(id);
+    }
+
+    private void clearBaselines(){
+        baselines.clear();
+        lastKeyframe = -1;
+        desynced = false;
+    }
+
     void sync(){
 
         if(timer.get(0, playerSyncTime)){
@@ -494,7 +598,8 @@ public class NetClient implements ApplicationListener{
             player.isBoosting, player.isShooting, ui.chatfrag.shown(), player.isBuilding,
             requests,
             Core.camera.position.x, Core.camera.position.y,
-            Core.camera.width * viewScale, Core.camera.height * viewScale);
+            Core.camera.width * viewScale, Core.camera.height * viewScale,
+            lastKeyframe, desynced);
         }
 
         if(timer.get(1, 60)){
@@ -514,4 +619,26 @@ public class NetClient implements ApplicationListener{
             return result;
         }
     }
+
+    /** The states of one entity recieved in the last {@link EntityDelta#maxBaseAge} snapshots, by snapshot ID. */
+    private static class Baselines{
+        final int[] ids = new int[EntityDelta.maxBaseAge];
+        final byte[][] states = new byte[EntityDelta.maxBaseAge][];
+
+        Baselines(){
+            Arrays.fill(ids, -1);
+        }
+
+        /** @return the state recieved in a snapshot, or null if it was not recieved or has been replaced. */
+        byte[] get(int snapshotID){
+            int index = snapshotID & (EntityDelta.maxBaseAge - 1);
+            return ids[index] == snapshotID ? states[index] : null;
+        }
+
+        void put(int snapshotID, byte[] state){
+            int index = snapshotID & (EntityDelta.maxBaseAge - 1);
+            ids[index] = snapshotID;
+            states[index] = state;
+        }
+    }
 }
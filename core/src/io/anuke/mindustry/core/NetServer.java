@@ -9,6 +9,7 @@ import io.anuke.arc.math.geom.*;
 import io.anuke.arc.util.*;
 import io.anuke.arc.util.CommandHandler.*;
 import io.anuke.arc.util.io.*;
+import io.anuke.arc.util.pooling.*;
 import io.anuke.mindustry.content.*;
 import io.anuke.mindustry.core.GameState.*;
 import io.anuke.mindustry.entities.*;
@@ -25,15 +26,26 @@ import io.anuke.mindustry.world.*;
 
 import java.io.*;
 import java.nio.*;
+import java.util.Comparator;
 import java.util.zip.*;
 
 import static io.anuke.mindustry.Vars.*;
 
 public class NetServer implements ApplicationListener{
-    private final static int maxSnapshotSize = 430, timerBlockSync = 0;
-    private final static float serverSyncTime = 12, kickDuration = 30 * 1000, blockSyncTime = 60 * 10;
+    private final static int maxSnapshotSize = 430, timerBlockSync = 0, timerEntitySync = 1;
+    private final static float serverSyncTime = 12, kickDuration = 30 * 1000, blockSyncTime = 20;
+    /** Maximum amount of uncompressed block snapshot bytes sent to each player every block sync. */
+    private final static int blockSyncBudget = 1200;
+    /** Block snapshots that are not acknowledged after this many more block snapshots are sent again. */
+    private final static int blockAckTimeout = 30;
     private final static Vector2 vector = new Vector2();
-    private final static Rectangle viewport = new Rectangle();
+    private final static Rectangle viewport = new Rectangle(), relevantArea = new Rectangle();
+    /** Distance around a player's view in which entities are still synced, at a lower rate. */
+    private final static float relevanceMargin = tilesize * 20f;
+    /** Entities in the relevance margin are synced once every this many snapshots. */
+    private final static int outerSyncInterval = 3;
+    /** Every this many snapshots, all entities are sent in full instead of as deltas. */
+    private final static int keyframeInterval = 50;
     /** If a player goes away of their server-side coordinates by this distance, they get teleported back. */
     private final static float correctDist = 16f;
 
@@ -41,7 +53,7 @@ public class NetServer implements ApplicationListener{
     public final CommandHandler clientCommands = new CommandHandler("/");
 
     private boolean closing = false;
-    private Interval timer = new Interval();
+    private Interval timer = new Interval(2);
 
     private ByteBuffer writeBuffer = ByteBuffer.allocate(127);
     private ByteBufferOutput outputBuffer = new ByteBufferOutput(writeBuffer);
@@ -50,6 +62,32 @@ public class NetServer implements ApplicationListener{
     private ReusableByteOutStream syncStream = new ReusableByteOutStream();
     /** Data stream for writing player sync data to. */
     private DataOutputStream dataStream = new DataOutputStream(syncStream);
+    /** Stream for writing a single block entity to, so that its length can be written before it. */
+    private ReusableByteOutStream blockStream = new ReusableByteOutStream();
+    private DataOutputStream blockData = new DataOutputStream(blockStream);
+
+    /** Compresses and sends entity snapshots off the logic thread. */
+    private SnapshotSender snapshots = new SnapshotSender();
+    /** Serialized entity states of the current sync tick. */
+    private EntityStateCache stateCache = new EntityStateCache();
+
+    /** Tile entities of all blocks with sync enabled. */
+    private ObjectSet<TileEntity> syncedBlocks = new ObjectSet<>();
+    /** Valid synced block entities of the current block sync tick, and their sync versions. */
+    private Array<TileEntity> blockEntities = new Array<>();
+    private IntArray blockEntityVersions = new IntArray();
+    /** Synced block entities that need to be sent to the player currently being synced. */
+    private Array<TileEntity> blockCandidates = new Array<>();
+    /** IDs of block snapshots that have not been acknowledged in time. */
+    private IntArray expired = new IntArray();
+    /** Position that block entities are sorted by distance to. */
+    private float sortX, sortY;
+    private Comparator<TileEntity> blockPriority = (a, b) -> Float.compare(Mathf.dst2(a.x, a.y, sortX, sortY), Mathf.dst2(b.x, b.y, sortX, sortY));
+
+    /** IDs of entities relevant to the player currently being synced. */
+    private IntSet relevant = new IntSet();
+    /** IDs of entities that have left the relevance area of the player currently being synced. */
+    private IntArray despawned = new IntArray();
 
     public NetServer(){
 
@@ -214,6 +252,17 @@ public class NetServer implements ApplicationListener{
             RemoteReadServer.readPacket(packet.writeBuffer, packet.type, con.player);
         });
 
+        Events.on(WorldLoadEvent.class, e -> {
+            syncedBlocks.clear();
+            for(int x = 0; x < world.width(); x++){
+                for(int y = 0; y < world.height(); y++){
+                    addSyncedBlock(world.rawTile(x, y));
+                }
+            }
+        });
+
+        Events.on(TileChangeEvent.class, e -> addSyncedBlock(e.tile));
+
         registerCommands();
     }
 
@@ -417,6 +466,9 @@ public class NetServer implements ApplicationListener{
     }
 
     public void sendWorldData(Player player){
+        //the client discards all entities when it receives world data
+        player.con.resetEntitySync();
+
         ByteArrayOutputStream stream = new ByteArrayOutputStream();
         DeflaterOutputStream def = new FastDeflaterOutputStream(stream);
         NetworkIO.writeWorld(player, def);
@@ -459,7 +511,8 @@ public class NetServer implements ApplicationListener{
         Tile mining,
         boolean boosting, boolean shooting, boolean chatting, boolean building,
         BuildRequest[] requests,
-        float viewX, float viewY, float viewWidth, float viewHeight
+        float viewX, float viewY, float viewWidth, float viewHeight,
+        int lastKeyframe, boolean desynced
     ){
         NetConnection connection = player.con;
         if(connection == null || snapshotID < connection.lastRecievedClientSnapshot) return;
@@ -473,6 +526,11 @@ public class NetServer implements ApplicationListener{
         connection.viewWidth = viewWidth;
         connection.viewHeight = viewHeight;
 
+        //only send another keyframe once the client has recieved the last one and still can't apply deltas
+        if(desynced && lastKeyframe >= connection.lastKeyframe){
+            connection.keyframeRequested = true;
+        }
+
         long elapsed = Time.timeSinceMillis(connection.lastRecievedClientTime);
 
         float maxSpeed = boosting && !player.mech.flying ? player.mech.compoundSpeedBoost : player.mech.compoundSpeed;
@@ -533,6 +591,56 @@ public class NetServer implements ApplicationListener{
         connection.lastRecievedClientTime = Time.millis();
     }
 
+    /** Makes the entity states of an acknowledged snapshot packet the baselines for later deltas. */
+    @Remote(targets = Loc.client, unreliable = true)
+    public static void onEntitySnapshotAck(Player player, int packetID){
+        NetConnection con = player.con;
+        if(con == null) return;
+
+        SentStates states = con.pendingEntitySnapshots.remove(packetID);
+        if(states == null) return;
+
+        //states from before the last keyframe may be ones the client could not apply
+        if(states.snapshotID >= con.lastKeyframe){
+            for(int i = 0; i < states.size(); i++){
+                int id = states.id(i), length = states.length(i);
+
+                //only newer states of entities that have stayed relevant since they were sent can be used
+                if(!con.syncedEntities.containsKey(id) || states.snapshotID < con.syncedSince.get(id, 0) || states.snapshotID <= con.baselineIDs.get(id, -1)) continue;
+
+                byte[] base = con.baselines.get(id);
+                if(base == null || base.length != length){
+                    base = new byte[length];
+                    con.baselines.put(id, base);
+                }
+
+                System.arraycopy(states.buffer(), states.offset(i), base, 0, length);
+                con.baselineIDs.put(id, states.snapshotID);
+            }
+        }
+
+        Pools.free(states);
+    }
+
+    @Remote(targets = Loc.client, unreliable = true)
+    public static void onBlockSnapshotAck(Player player, int snapshotID){
+        NetConnection con = player.con;
+        if(con == null) return;
+
+        IntArray entries = con.pendingBlockSnapshots.remove(snapshotID);
+        if(entries == null) return;
+
+        for(int i = 0; i < entries.size; i += 2){
+            int id = entries.get(i), version = entries.get(i + 1);
+            con.blockVersions.put(id, version);
+            if(con.sentBlockVersions.get(id, -1) == version){
+                con.sentBlockVersions.remove(id, -1);
+            }
+        }
+
+        freeEntries(entries);
+    }
+
     @Remote(targets = Loc.client, called = Loc.server)
     public static void onAdminRequest(Player player, Player other, AdminAction action){
 
@@ -617,31 +725,127 @@ public class NetServer implements ApplicationListener{
         }
     }
 
-    /** Sends a block snapshot to all players. */
-    public void writeBlockSnapshots() throws IOException{
-        syncStream.reset();
+    /** Sends the synced blocks that have changed since the last acknowledged snapshot to a player, nearest first, until the byte budget is used up. */
+    public void writeBlockSnapshots(NetConnection con) throws IOException{
+        expireBlockSnapshots(con);
+
+        blockCandidates.clear();
+        for(int i = 0; i < blockEntities.size; i++){
+            int id = blockEntities.get(i).id, version = blockEntityVersions.get(i);
+            if(version != con.blockVersions.get(id, -1) && version != con.sentBlockVersions.get(id, -1)){
+                blockCandidates.add(blockEntities.get(i));
+            }
+        }
+
+        if(blockCandidates.isEmpty()) return;
 
+        sortX = con.viewX;
+        sortY = con.viewY;
+        blockCandidates.sort(blockPriority);
+
+        syncStream.reset();
+        IntArray entries = Pools.obtain(IntArray.class, IntArray::new);
+        int total = 0;
         short sent = 0;
-        for(TileEntity entity : tileGroup.all()){
-            if(!entity.block.sync) continue;
-            sent ++;
+
+        for(TileEntity entity : blockCandidates){
+            int version = entity.syncVersion();
+
+            //entities are prefixed with their length, so clients can skip ones they can't read
+            blockStream.reset();
+            entity.write(blockData);
+            blockData.flush();
 
             dataStream.writeInt(entity.tile.pos());
-            entity.write(dataStream);
+            dataStream.writeShort(blockStream.size());
+            dataStream.write(blockStream.getBytes(), 0, blockStream.size());
+            entries.add(entity.id);
+            entries.add(version);
+            con.sentBlockVersions.put(entity.id, version);
+            sent ++;
 
             if(syncStream.size() > maxSnapshotSize){
-                dataStream.close();
-                byte[] stateBytes = syncStream.toByteArray();
-                Call.onBlockSnapshot(sent, (short)stateBytes.length, net.compressSnapshot(stateBytes));
+                total += syncStream.size();
+                sendBlockSnapshot(con, sent, entries);
+                entries = Pools.obtain(IntArray.class, IntArray::new);
                 sent = 0;
                 syncStream.reset();
+
+                if(total >= blockSyncBudget) break;
             }
         }
 
         if(sent > 0){
-            dataStream.close();
-            byte[] stateBytes = syncStream.toByteArray();
-            Call.onBlockSnapshot(sent, (short)stateBytes.length, net.compressSnapshot(stateBytes));
+            sendBlockSnapshot(con, sent, entries);
+        }else{
+            freeEntries(entries);
+        }
+    }
+
+    private void sendBlockSnapshot(NetConnection con, short amount, IntArray entries) throws IOException{
+        int snapshotID = con.blockSnapshots++;
+        con.pendingBlockSnapshots.put(snapshotID, entries);
+
+        dataStream.close();
+        byte[] stateBytes = syncStream.toByteArray();
+        Call.onBlockSnapshot(con, snapshotID, amount, (short)stateBytes.length, net.compressSnapshot(stateBytes));
+    }
+
+    /** Marks the blocks of snapshots that were never acknowledged as unsent, so they are sent again. */
+    private void expireBlockSnapshots(NetConnection con){
+        expired.clear();
+        IntMap.Keys keys = con.pendingBlockSnapshots.keys();
+        while(keys.hasNext){
+            int id = keys.next();
+            if(id < con.blockSnapshots - blockAckTimeout){
+                expired.add(id);
+            }
+        }
+
+        for(int i = 0; i < expired.size; i++){
+            IntArray entries = con.pendingBlockSnapshots.remove(expired.get(i));
+            for(int j = 0; j < entries.size; j += 2){
+                if(con.sentBlockVersions.get(entries.get(j), -1) == entries.get(j + 1)){
+                    con.sentBlockVersions.remove(entries.get(j), -1);
+                }
+            }
+            freeEntries(entries);
+        }
+    }
+
+    private static void freeEntries(IntArray entries){
+        entries.clear();
+        Pools.free(entries);
+    }
+
+    /** Collects all synced block entities along with their current sync version, pruning ones that no longer exist. */
+    private void updateBlockEntities(){
+        blockEntities.clear();
+        blockEntityVersions.clear();
+        blockCandidates.clear();
+
+        for(TileEntity entity : syncedBlocks){
+            if(!entity.isValid()){
+                blockCandidates.add(entity);
+                continue;
+            }
+
+            blockEntities.add(entity);
+            blockEntityVersions.add(entity.syncVersion());
+        }
+
+        for(TileEntity entity : blockCandidates){
+            syncedBlocks.remove(entity);
+            for(NetConnection con : net.getConnections()){
+                con.blockVersions.remove(entity.id, -1);
+                con.sentBlockVersions.remove(entity.id, -1);
+            }
+        }
+    }
+
+    private void addSyncedBlock(Tile tile){
+        if(tile.entity != null && tile.entity.tile == tile && tile.block().sync){
+            syncedBlocks.add(tile.entity);
         }
     }
 
@@ -662,7 +866,24 @@ public class NetServer implements ApplicationListener{
         //write basic state data.
         Call.onStateSnapshot(player.con, state.wavetime, state.wave, state.enemies(), (short)stateBytes.length, net.compressSnapshot(stateBytes));
 
-        viewport.setSize(player.con.viewWidth, player.con.viewHeight).setCenter(player.con.viewX, player.con.viewY);
+        NetConnection con = player.con;
+        int snapshotID = con.entitySnapshots++;
+        //entities outside the view are only synced every few snapshots
+        boolean syncOuter = snapshotID % outerSyncInterval == 0;
+        boolean keyframe = con.keyframeRequested || snapshotID % keyframeInterval == 0;
+
+        if(keyframe){
+            con.baselines.clear();
+            con.baselineIDs.clear();
+            con.lastKeyframe = snapshotID;
+            con.keyframeRequested = false;
+        }
+
+        expireEntitySnapshots(con, snapshotID);
+
+        viewport.setSize(con.viewWidth, con.viewHeight).setCenter(con.viewX, con.viewY);
+        relevantArea.setSize(con.viewWidth + relevanceMargin * 2f, con.viewHeight + relevanceMargin * 2f).setCenter(con.viewX, con.viewY);
+        relevant.clear();
 
         //check for syncable groups
         for(EntityGroup<?> group : entities.all()){
@@ -676,34 +897,138 @@ public class NetServer implements ApplicationListener{
             syncStream.reset();
 
             int sent = 0;
+            SentStates states = Pools.obtain(SentStates.class, SentStates::new);
 
-            for(Entity entity :  group.all()){
+            for(Entity entity : relevantEntities(group)){
                 SyncTrait sync = (SyncTrait)entity;
                 if(!sync.isSyncing()) continue;
 
-                //write all entities now
+                //players are always relevant, as they are needed for the player list
+                if(group != playerGroup && !relevantArea.contains(entity.getX(), entity.getY())) continue;
+
+                relevant.add(entity.getID());
+
+                if(!syncOuter && entity != player && con.syncedEntities.containsKey(entity.getID()) && !viewport.contains(entity.getX(), entity.getY())) continue;
+
+                if(!con.syncedEntities.containsKey(entity.getID())){
+                    con.syncedSince.put(entity.getID(), snapshotID);
+                }
+                con.syncedEntities.put(entity.getID(), group.getID());
+
+                //states are written once per tick and shared between players
+                stateCache.write(sync);
+                byte[] buffer = stateCache.buffer();
+                int offset = stateCache.offset(sync), length = stateCache.length(sync);
+                byte[] base = con.baselines.get(entity.getID());
+                int baseID = con.baselineIDs.get(entity.getID(), -1);
+
                 dataStream.writeInt(entity.getID()); //write id
-                dataStream.writeByte(sync.getTypeID().id); //write type ID
-                sync.write(dataStream); //write entity
+
+                //deltas are made from the last state the client acknowledged, as long as it still has it
+                if(base == null || base.length != length || snapshotID - baseID >= EntityDelta.maxBaseAge){
+                    dataStream.writeByte(EntityDelta.full);
+                    dataStream.writeByte(sync.getTypeID().id); //write type ID
+                    dataStream.writeShort(length);
+                    dataStream.write(buffer, offset, length); //write entity
+                }else{
+                    boolean changed = EntityDelta.changed(base, buffer, offset, length);
+                    dataStream.writeByte(changed ? EntityDelta.delta : EntityDelta.unchanged);
+                    dataStream.writeShort(baseID);
+                    if(changed){
+                        EntityDelta.write(dataStream, base, buffer, offset, length); //write changed parts of entity
+                    }
+                }
+
+                states.add(entity.getID(), buffer, offset, length);
 
                 sent++;
 
                 if(syncStream.size() > maxSnapshotSize){
-                    dataStream.close();
-                    byte[] syncBytes = syncStream.toByteArray();
-                    Call.onEntitySnapshot(player.con, (byte)group.getID(), (short)sent, (short)syncBytes.length, net.compressSnapshot(syncBytes));
+                    sendEntitySnapshot(con, group, (short)sent, snapshotID, keyframe, states);
+                    states = Pools.obtain(SentStates.class, SentStates::new);
                     sent = 0;
                     syncStream.reset();
                 }
             }
 
             if(sent > 0){
-                dataStream.close();
+                sendEntitySnapshot(con, group, (short)sent, snapshotID, keyframe, states);
+            }else{
+                Pools.free(states);
+            }
+        }
+
+        writeDespawns(con);
+    }
+
+    private void sendEntitySnapshot(NetConnection con, EntityGroup<?> group, short amount, int snapshotID, boolean keyframe, SentStates states) throws IOException{
+        int packetID = con.entityPackets++;
+        states.snapshotID = snapshotID;
+        con.pendingEntitySnapshots.put(packetID, states);
+
+        dataStream.close();
+        snapshots.send(con, (byte)group.getID(), amount, snapshotID, packetID, keyframe, syncStream.toByteArray());
+    }
 
-                byte[] syncBytes = syncStream.toByteArray();
-                Call.onEntitySnapshot(player.con, (byte)group.getID(), (short)sent, (short)syncBytes.length, net.compressSnapshot(syncBytes));
+    /** Forgets the states of snapshot packets that were not acknowledged in time; they are too old to be used as baselines. */
+    private void expireEntitySnapshots(NetConnection con, int snapshotID){
+        expired.clear();
+        for(IntMap.Entry<SentStates> entry : con.pendingEntitySnapshots.entries()){
+            if(snapshotID - entry.value.snapshotID >= EntityDelta.maxBaseAge){
+                expired.add(entry.key);
             }
         }
+
+        for(int i = 0; i < expired.size; i++){
+            Pools.free(con.pendingEntitySnapshots.remove(expired.get(i)));
+        }
+    }
+
+    /** Returns the entities of a group that may be relevant to the current relevance area. */
+    private Iterable<? extends Entity> relevantEntities(EntityGroup<?> group){
+        //only solid entities are stored in trees; everything else needs a full iteration
+        if(group == playerGroup || !group.useTree() || !(group.all().get(0) instanceof SolidTrait)){
+            return group.all();
+        }
+        return group.intersect(relevantArea.x, relevantArea.y, relevantArea.width, relevantArea.height);
+    }
+
+    /** Tells a client to remove all synced entities that have left its relevance area. */
+    private void writeDespawns(NetConnection con) throws IOException{
+        despawned.clear();
+        for(IntIntMap.Entry entry : con.syncedEntities.entries()){
+            if(!relevant.contains(entry.key)){
+                despawned.add(entry.key);
+            }
+        }
+
+        syncStream.reset();
+        short sent = 0;
+
+        for(int i = 0; i < despawned.size; i++){
+            int id = despawned.get(i);
+            dataStream.writeByte(con.syncedEntities.get(id, 0));
+            dataStream.writeInt(id);
+            con.syncedEntities.remove(id, 0);
+            con.syncedSince.remove(id, 0);
+            con.baselines.remove(id);
+            con.baselineIDs.remove(id, 0);
+            sent ++;
+
+            if(syncStream.size() > maxSnapshotSize){
+                dataStream.close();
+                byte[] bytes = syncStream.toByteArray();
+                Call.onEntityDespawn(con, sent, (short)bytes.length, net.compressSnapshot(bytes));
+                sent = 0;
+                syncStream.reset();
+            }
+        }
+
+        if(sent > 0){
+            dataStream.close();
+            byte[] bytes = syncStream.toByteArray();
+            Call.onEntityDespawn(con, sent, (short)bytes.length, net.compressSnapshot(bytes));
+        }
     }
 
     String fixName(String name){
@@ -759,6 +1084,12 @@ public class NetServer implements ApplicationListener{
     void sync(){
 
         try{
+            //all players are synced on the same tick, so entity states can be shared between them
+            boolean syncEntities = timer.get(timerEntitySync, serverSyncTime);
+            if(syncEntities){
+                stateCache.clear();
+            }
+
             //iterate through each player
             for(int i = 0; i < playerGroup.size(); i++){
                 Player player = playerGroup.all().get(i);
@@ -771,13 +1102,21 @@ public class NetServer implements ApplicationListener{
 
                 NetConnection connection = player.con;
 
-                if(!player.timer.get(Player.timerSync, serverSyncTime) || !connection.hasConnected) continue;
+                //skip connections that can't keep up until their queued snapshots are sent
+                if(!syncEntities || !connection.hasConnected || snapshots.isCongested(connection)) continue;
 
                 writeEntitySnapshot(player);
             }
 
             if(playerGroup.size() > 0 && Core.settings.getBool("blocksync") && timer.get(timerBlockSync, blockSyncTime)){
-                writeBlockSnapshots();
+                updateBlockEntities();
+
+                for(int i = 0; i < playerGroup.size(); i++){
+                    Player player = playerGroup.all().get(i);
+                    if(player.isLocal || player.con == null || !player.con.hasConnected) continue;
+
+                    writeBlockSnapshots(player.con);
+                }
             }
 
         }catch(IOException e){
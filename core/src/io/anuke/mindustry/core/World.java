@@ -28,6 +28,8 @@ public class World{
     private Tile[][] tiles;
 
     private boolean generating, invalidMap;
+    /** Packed tile states, indexed by x + y * width. Kept up to date as tiles change, so that hot queries need not walk tiles. */
+    private Bits solidBits = new Bits(), passableBits = new Bits(), deepBits = new Bits();
 
     public World(){
 
@@ -38,15 +40,44 @@ public class World{
     }
 
     public boolean solid(int x, int y){
-        Tile tile = tile(x, y);
-
-        return tile == null || tile.solid();
+        return !inBounds(x, y) || solidBits.get(x + y * tiles.length);
     }
 
     public boolean passable(int x, int y){
-        Tile tile = tile(x, y);
+        return inBounds(x, y) && passableBits.get(x + y * tiles.length);
+    }
+
+    /** @return whether the floor at this position is deep water. Positions outside the world are not deep. */
+    public boolean deep(int x, int y){
+        return inBounds(x, y) && deepBits.get(x + y * tiles.length);
+    }
+
+    public boolean inBounds(int x, int y){
+        return tiles != null && x >= 0 && y >= 0 && x < tiles.length && y < tiles[0].length;
+    }
+
+    /**
+     * Updates the packed state of a tile and all tiles linked to it, as the solidity of a multiblock part depends on its link.
+     * Called when a tile changes, and by blocks whose solidity depends on their entity.
+     */
+    public void updateSolidity(Tile tile){
+        if(generating || tiles == null) return;
+        tile.link().getLinkedTiles(this::updateBits);
+    }
 
-        return tile != null && tile.passable();
+    private void updateBits(Tile tile){
+        int index = tile.x + tile.y * tiles.length;
+        setBit(solidBits, index, tile.solid());
+        setBit(passableBits, index, tile.passable());
+        setBit(deepBits, index, tile.floor().isDeep());
+    }
+
+    private static void setBit(Bits bits, int index, boolean value){
+        if(value){
+            bits.set(index);
+        }else{
+            bits.clear(index);
+        }
     }
 
     public boolean wallSolid(int x, int y){
@@ -179,6 +210,16 @@ public class World{
             addDarkness(tiles);
         }
 
+        solidBits = new Bits(tiles.length * tiles[0].length);
+        passableBits = new Bits(tiles.length * tiles[0].length);
+        deepBits = new Bits(tiles.length * tiles[0].length);
+
+        for(int x = 0; x < tiles.length; x++){
+            for(int y = 0; y < tiles[0].length; y++){
+                updateBits(tiles[x][y]);
+            }
+        }
+
         entities.all().each(group -> group.resize(-finalWorldBounds, -finalWorldBounds, tiles.length * tilesize + finalWorldBounds * 2, tiles[0].length * tilesize + finalWorldBounds * 2));
 
         generating = false;
@@ -270,6 +311,9 @@ public class World{
     }
 
     public void notifyChanged(Tile tile){
+        //updated right away rather than on the change event, which only fires on the next frame
+        updateSolidity(tile);
+
         if(!generating){
             Core.app.post(() -> Events.fire(new TileChangeEvent(tile)));
         }
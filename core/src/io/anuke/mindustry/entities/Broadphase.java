@@ -0,0 +1,33 @@
+package io.anuke.mindustry.entities;
+
+import io.anuke.arc.collection.*;
+import io.anuke.arc.func.*;
+import io.anuke.arc.math.geom.*;
+import io.anuke.mindustry.entities.traits.*;
+
+/** A spatial index of the solid entities in a group, used for intersection queries and collisions. */
+public interface Broadphase{
+
+    /** Updates the index with the current positions of these entities. Called once per frame, before any queries. */
+    void update(Array<? extends Entity> entities);
+
+    /** Removes an entity from the index. */
+    void remove(Entity entity);
+
+    /** Removes all entities and sets new bounds. */
+    void resize(float x, float y, float width, float height);
+
+    /** Removes all entities. */
+    void clear();
+
+    /**
+     * Calls the consumer for every entity with a hitbox that overlaps this rectangle.
+     * Must be safe to call from several threads at once, as queries also run in the parallel update phase.
+     */
+    void intersect(float x, float y, float width, float height, Cons<SolidTrait> out);
+
+    /** Adds every entity with a hitbox that overlaps this rectangle to the array. */
+    default void intersect(Rectangle rect, Array<SolidTrait> out){
+        intersect(rect.x, rect.y, rect.width, rect.height, out::add);
+    }
+}
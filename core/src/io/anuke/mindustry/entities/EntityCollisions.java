@@ -5,16 +5,16 @@ import io.anuke.arc.math.Mathf;
 import io.anuke.arc.math.geom.*;
 import io.anuke.mindustry.entities.traits.Entity;
 import io.anuke.mindustry.entities.traits.SolidTrait;
+import io.anuke.mindustry.entities.traits.TeamTrait;
 import io.anuke.mindustry.world.Tile;
 
-import static io.anuke.mindustry.Vars.tilesize;
-import static io.anuke.mindustry.Vars.world;
+import java.util.Comparator;
+
+import static io.anuke.mindustry.Vars.*;
 
 public class EntityCollisions{
     //range for tile collision scanning
     private static final int r = 1;
-    //move in 1-unit chunks
-    private static final float seg = 1f;
 
     //tile collisions
     private Rectangle tmp = new Rectangle();
@@ -26,33 +26,101 @@ public class EntityCollisions{
     //entity collisions
     private Array<SolidTrait> arrOut = new Array<>();
 
+    //sweep and prune
+    private static final Comparator<SweepEntry> sweepComparator = (a, b) -> Float.compare(a.x1, b.x1);
+    private Array<SweepEntry> sweepPool = new Array<>();
+    private int sweepPoolIndex;
+    private Array<SweepEntry> sweepA = new Array<>(), sweepB = new Array<>();
+    private Array<SweepEntry> activeA = new Array<>(false, 16), activeB = new Array<>(false, 16);
+
+    /**
+     * Moves an entity and resolves collisions with solid tiles, first along the X axis, then along the Y axis.
+     * Each axis is resolved with one sweep of the tile columns or rows ahead of the hitbox, so the cost does not depend on speed.
+     */
     public void move(SolidTrait entity, float deltax, float deltay){
+        moveAxis(entity, deltax, true);
+        moveAxis(entity, deltay, false);
+    }
+
+    private void moveAxis(SolidTrait entity, float delta, boolean x){
+        entity.hitboxTile(r1);
 
-        boolean movedx = false;
+        //entities that are already inside a solid tile are pushed out instead
+        if(overlapsSolid(entity, r1)){
+            moveDelta(entity, x ? delta : 0f, x ? 0f : delta, x);
+            return;
+        }
 
-        while(Math.abs(deltax) > 0 || !movedx){
-            movedx = true;
-            moveDelta(entity, Math.min(Math.abs(deltax), seg) * Mathf.sign(deltax), 0, true);
+        if(Mathf.zero(delta)) return;
 
-            if(Math.abs(deltax) >= seg){
-                deltax -= seg * Mathf.sign(deltax);
-            }else{
-                deltax = 0f;
+        float half = tilesize / 2f;
+        //tiles that overlap the hitbox on the other axis
+        float min = x ? r1.y : r1.x, max = x ? r1.y + r1.height : r1.x + r1.width;
+        int from = (int)Math.floor((min - half) / tilesize) + 1, to = Mathf.ceil((max + half) / tilesize) - 1;
+
+        if(delta > 0){
+            float edge = x ? r1.x + r1.width : r1.y + r1.height;
+            int end = tileAt(edge + delta);
+
+            for(int t = tileAt(edge); t <= end; t++){
+                float near = t * tilesize - half;
+                if(near >= edge + delta) break;
+
+                if(solidLine(entity, t, from, to, x)){
+                    delta = Math.max(near - edge, 0f);
+                    break;
+                }
+            }
+        }else{
+            float edge = x ? r1.x : r1.y;
+            int end = tileAt(edge + delta);
+
+            for(int t = tileAt(edge); t >= end; t--){
+                float near = t * tilesize + half;
+                if(near <= edge + delta) break;
+
+                if(solidLine(entity, t, from, to, x)){
+                    delta = Math.min(near - edge, 0f);
+                    break;
+                }
             }
         }
 
-        boolean movedy = false;
+        if(x){
+            entity.setX(entity.getX() + delta);
+        }else{
+            entity.setY(entity.getY() + delta);
+        }
+    }
 
-        while(Math.abs(deltay) > 0 || !movedy){
-            movedy = true;
-            moveDelta(entity, 0, Math.min(Math.abs(deltay), seg) * Mathf.sign(deltay), false);
+    /** @return whether any tile in a column (if x is true) or row between two tile coordinates is solid for this entity. */
+    private boolean solidLine(SolidTrait entity, int line, int from, int to, boolean x){
+        for(int i = from; i <= to; i++){
+            int wx = x ? line : i, wy = x ? i : line;
+            if(solid(wx, wy) && entity.collidesGrid(wx, wy)){
+                return true;
+            }
+        }
+        return false;
+    }
 
-            if(Math.abs(deltay) >= seg){
-                deltay -= seg * Mathf.sign(deltay);
-            }else{
-                deltay = 0f;
+    /** @return whether this hitbox overlaps a tile that is solid for this entity. */
+    private boolean overlapsSolid(SolidTrait entity, Rectangle rect){
+        float half = tilesize / 2f;
+        int x1 = (int)Math.floor((rect.x - half) / tilesize) + 1, x2 = Mathf.ceil((rect.x + rect.width + half) / tilesize) - 1;
+        int y1 = (int)Math.floor((rect.y - half) / tilesize) + 1, y2 = Mathf.ceil((rect.y + rect.height + half) / tilesize) - 1;
+
+        for(int wx = x1; wx <= x2; wx++){
+            if(solidLine(entity, wx, y1, y2, true)){
+                return true;
             }
         }
+        return false;
+    }
+
+    /** @return the coordinate of the tile that contains a world position on one axis. Tiles are centered on their coordinates. */
+    private static int tileAt(float pos){
+        return (int)Math.floor(pos / tilesize + 0.5f);
     }
 
     public void moveDelta(SolidTrait entity, float deltax, float deltay, boolean x){
@@ -110,21 +178,19 @@ public class EntityCollisions{
     @SuppressWarnings("unchecked")
     public <T extends Entity> void updatePhysics(EntityGroup<T> group){
 
-        QuadTree tree = group.tree();
-        tree.clear();
-
         for(Entity entity : group.all()){
             if(entity instanceof SolidTrait){
                 SolidTrait s = (SolidTrait)entity;
                 s.lastPosition().set(s.getX(), s.getY());
-                tree.insert(s);
             }
         }
+
+        group.broadphase().update(group.all());
     }
 
     private static boolean solid(int x, int y){
-        Tile tile = world.tile(x, y);
-        return tile != null && tile.solid();
+        //positions outside the world are not solid for movement
+        return world.inBounds(x, y) && world.solid(x, y);
     }
 
     private void checkCollide(Entity entity, Entity other){
@@ -206,6 +272,178 @@ public class EntityCollisions{
         }
     }
 
+    /**
+     * Collides the entities of a group with the entities of several other groups in a single pass.
+     * Hitboxes are sorted along the X axis once, and only pairs that overlap on that axis are checked.
+     * Pairs of entities on teams that are not enemies are skipped.
+     * Entities of the first group that collide swept only collide with the first entity that their path enters,
+     * see {@link SolidTrait#collisionSwept(SolidTrait, float, float)}.
+     */
+    public void collideGroups(EntityGroup<?> groupa, Array<EntityGroup<?>> groups){
+        sweepPoolIndex = 0;
+        sweepA.clear();
+        sweepB.clear();
+        activeA.clear();
+        activeB.clear();
+
+        for(Entity entity : groupa.all()){
+            if(!(entity instanceof SolidTrait)) continue;
+
+            SolidTrait solid = (SolidTrait)entity;
+            boolean swept = solid.collidesSwept();
+
+            if(swept && !solid.isAdded()) continue;
+
+            //moving entities use a box that covers their whole movement this frame
+            solid.hitbox(r1);
+            r1.x += (solid.lastPosition().x - solid.getX());
+            r1.y += (solid.lastPosition().y - solid.getY());
+
+            solid.hitbox(r2);
+            r2.merge(r1);
+
+            SweepEntry entry = obtainEntry(solid, r2);
+            entry.swept = swept;
+            sweepA.add(entry);
+        }
+
+        if(sweepA.isEmpty()) return;
+
+        for(EntityGroup<?> group : groups){
+            for(Entity entity : group.all()){
+                if(!(entity instanceof SolidTrait)) continue;
+
+                SolidTrait solid = (SolidTrait)entity;
+                solid.hitbox(r1);
+                SweepEntry entry = obtainEntry(solid, r1);
+                entry.swept = false;
+                sweepB.add(entry);
+            }
+        }
+
+        sweepA.sort(sweepComparator);
+        sweepB.sort(sweepComparator);
+
+        int i = 0, j = 0;
+        while(i < sweepA.size && j < sweepB.size){
+            if(sweepA.get(i).x1 <= sweepB.get(j).x1){
+                SweepEntry a = sweepA.get(i++);
+                sweep(a, activeB, true);
+                activeA.add(a);
+            }else{
+                SweepEntry b = sweepB.get(j++);
+                sweep(b, activeA, false);
+                activeB.add(b);
+            }
+        }
+
+        //remaining entries can still overlap entries of the other group that are active
+        while(i < sweepA.size){
+            sweep(sweepA.get(i++), activeB, true);
+        }
+
+        while(j < sweepB.size){
+            sweep(sweepB.get(j++), activeA, false);
+        }
+
+        for(int k = 0; k < sweepA.size; k++){
+            SweepEntry entry = sweepA.get(k);
+            if(!entry.swept) continue;
+
+            SolidTrait solid = entry.entity;
+            float x = solid.lastPosition().x, y = solid.lastPosition().y;
+            float time = entry.hit == null ? 0f : entry.hitTime;
+            solid.collisionSwept(entry.hit, x + (solid.getX() - x) * time, y + (solid.getY() - y) * time);
+        }
+    }
+
+    /** Removes active entries that end before this entry starts, and checks collisions with the rest. */
+    private void sweep(SweepEntry entry, Array<SweepEntry> active, boolean first){
+        for(int i = active.size - 1; i >= 0; i--){
+            SweepEntry other = active.get(i);
+
+            if(other.x2 <= entry.x1){
+                active.remove(i);
+                continue;
+            }
+
+            if(entry.y1 < other.y2 && entry.y2 > other.y1 && entry.x2 > other.x1 && enemies(entry.entity, other.entity)){
+                SweepEntry a = first ? entry : other, b = first ? other : entry;
+
+                if(a.swept){
+                    sweepCandidate(a, b.entity);
+                }else{
+                    checkCollide(a.entity, b.entity);
+                }
+            }
+        }
+    }
+
+    /**
+     * Keeps the entity that the path of a swept entry enters first.
+     * Hitboxes are expanded by the hitbox of the swept entity, so that its path can be traced as a segment.
+     */
+    private void sweepCandidate(SweepEntry entry, SolidTrait other){
+        SolidTrait solid = entry.entity;
+        if(!solid.collides(other) || !other.collides(solid)) return;
+
+        solid.hitbox(r1);
+        other.hitbox(r2);
+
+        float padx = r1.width / 2f, pady = r1.height / 2f;
+        float x = solid.lastPosition().x, y = solid.lastPosition().y;
+        float time = segmentEntry(x, y, solid.getX() - x, solid.getY() - y,
+            r2.x - padx, r2.y - pady, r2.x + r2.width + padx, r2.y + r2.height + pady);
+
+        if(time >= 0f && time < entry.hitTime){
+            entry.hitTime = time;
+            entry.hit = other;
+        }
+    }
+
+    /** @return the fraction of the segment at which it enters the box, 0 if it starts inside, or -1 if it misses the box. */
+    private static float segmentEntry(float x, float y, float dx, float dy, float minx, float miny, float maxx, float maxy){
+        float tmin = 0f, tmax = 1f;
+
+        if(Mathf.zero(dx)){
+            if(x < minx || x > maxx) return -1f;
+        }else{
+            float t1 = (minx - x) / dx, t2 = (maxx - x) / dx;
+            tmin = Math.max(tmin, Math.min(t1, t2));
+            tmax = Math.min(tmax, Math.max(t1, t2));
+        }
+
+        if(Mathf.zero(dy)){
+            if(y < miny || y > maxy) return -1f;
+        }else{
+            float t1 = (miny - y) / dy, t2 = (maxy - y) / dy;
+            tmin = Math.max(tmin, Math.min(t1, t2));
+            tmax = Math.min(tmax, Math.max(t1, t2));
+        }
+
+        return tmin <= tmax ? tmin : -1f;
+    }
+
+    private boolean enemies(SolidTrait a, SolidTrait b){
+        return !(a instanceof TeamTrait && b instanceof TeamTrait) || state.teams.areEnemies(((TeamTrait)a).getTeam(), ((TeamTrait)b).getTeam());
+    }
+
+    private SweepEntry obtainEntry(SolidTrait entity, Rectangle rect){
+        if(sweepPoolIndex >= sweepPool.size){
+            sweepPool.add(new SweepEntry());
+        }
+
+        SweepEntry entry = sweepPool.get(sweepPoolIndex++);
+        entry.entity = entity;
+        entry.x1 = rect.x;
+        entry.y1 = rect.y;
+        entry.x2 = rect.x + rect.width;
+        entry.y2 = rect.y + rect.height;
+        entry.hit = null;
+        entry.hitTime = Float.MAX_VALUE;
+        return entry;
+    }
+
     @SuppressWarnings("unchecked")
     public void collideGroups(EntityGroup<?> groupa, EntityGroup<?> groupb){
 
@@ -223,7 +461,7 @@ public class EntityCollisions{
             r2.merge(r1);
 
             arrOut.clear();
-            groupb.tree().getIntersect(arrOut, r2);
+            groupb.broadphase().intersect(r2, arrOut);
 
             for(SolidTrait sc : arrOut){
                 sc.hitbox(r1);
@@ -233,4 +471,10 @@ public class EntityCollisions{
             }
         }
     }
+
+    private static class SweepEntry{
+        SolidTrait entity, hit;
+        float x1, y1, x2, y2, hitTime;
+        boolean swept;
+    }
 }
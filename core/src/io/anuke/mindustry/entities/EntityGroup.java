@@ -21,7 +21,9 @@ public class EntityGroup<T extends Entity>{
     private final Array<T> intersectArray = new Array<>();
     private final Rectangle intersectRect = new Rectangle();
     private IntMap<T> map;
-    private QuadTree tree;
+    /** indices of queued entities in {@link #entitiesToAdd} by ID; only used when mapping is enabled */
+    private IntIntMap queuedIndices;
+    private Broadphase broadphase;
     private Cons<T> removeListener;
     private Cons<T> addListener;
 
@@ -34,7 +36,7 @@ public class EntityGroup<T extends Entity>{
         this.type = type;
 
         if(useTree){
-            tree = new QuadTree<>(new Rectangle(0, 0, 0, 0));
+            broadphase = new GridBroadphase();
         }
     }
 
@@ -45,6 +47,11 @@ public class EntityGroup<T extends Entity>{
             collisions.updatePhysics(this);
         }
 
+        updateEntities();
+    }
+
+    /** Updates every entity, without processing queued additions and removals or updating physics first. */
+    public void updateEntities(){
         for(Entity e : all()){
             e.update();
         }
@@ -92,6 +99,7 @@ public class EntityGroup<T extends Entity>{
 
     public EntityGroup<T> enableMapping(){
         map = new IntMap<>();
+        queuedIndices = new IntIntMap();
         return this;
     }
 
@@ -112,6 +120,7 @@ public class EntityGroup<T extends Entity>{
         for(T e : entitiesToAdd){
             if(e == null)
                 continue;
+            e.setGroupIndex(entityArray.size);
             entityArray.add(e);
             e.added();
 
@@ -121,9 +130,15 @@ public class EntityGroup<T extends Entity>{
         }
 
         entitiesToAdd.clear();
+        if(queuedIndices != null){
+            queuedIndices.clear();
+        }
 
         for(T e : entitiesToRemove){
-            entityArray.removeValue(e, true);
+            removeEntity(e);
+            if(broadphase != null){
+                broadphase.remove(e);
+            }
             if(map != null){
                 map.remove(e.getID());
             }
@@ -144,23 +159,46 @@ public class EntityGroup<T extends Entity>{
         if(t != null){ //remove if present in map already
             remove(t);
         }else{ //maybe it's being queued?
-            for(T check : entitiesToAdd){
-                if(check.getID() == id){ //if it is indeed queued, remove it
-                    entitiesToAdd.removeValue(check, true);
-                    if(removeListener != null){
-                        removeListener.get(check);
-                    }
-                    break;
+            int index = queuedIndices.get(id, -1);
+            if(index != -1){ //if it is indeed queued, remove it
+                T check = entitiesToAdd.get(index);
+                queuedIndices.remove(id, -1);
+                entitiesToAdd.removeIndex(index);
+
+                //the last queued entity has been moved into this slot
+                if(index < entitiesToAdd.size && entitiesToAdd.get(index) != null){
+                    queuedIndices.put(entitiesToAdd.get(index).getID(), index);
+                }
+
+                if(removeListener != null){
+                    removeListener.get(check);
                 }
             }
         }
     }
 
+    /** Removes an entity from the entity array by swapping the last entity into its slot. */
+    private void removeEntity(T e){
+        int index = e.getGroupIndex();
+
+        if(index < 0 || index >= entityArray.size || entityArray.get(index) != e){
+            //the index is stale if the entity was queued twice in one frame, or has moved to another group
+            index = entityArray.indexOf(e, true);
+            if(index == -1) return;
+        }
+
+        entityArray.removeIndex(index);
+        if(index < entityArray.size){
+            entityArray.get(index).setGroupIndex(index);
+        }
+        e.setGroupIndex(-1);
+    }
+
     @SuppressWarnings("unchecked")
     public void intersect(float x, float y, float width, float height, Cons<? super T> out){
         //don't waste time for empty groups
         if(isEmpty()) return;
-        tree().getIntersect(out, x, y, width, height);
+        broadphase().intersect(x, y, width, height, (Cons)out);
     }
 
     @SuppressWarnings("unchecked")
@@ -168,19 +206,27 @@ public class EntityGroup<T extends Entity>{
         intersectArray.clear();
         //don't waste time for empty groups
         if(isEmpty()) return intersectArray;
-        tree().getIntersect(intersectArray, intersectRect.set(x, y, width, height));
+        broadphase().intersect(intersectRect.set(x, y, width, height), (Array)intersectArray);
         return intersectArray;
     }
 
-    public QuadTree tree(){
-        if(!useTree) throw new RuntimeException("This group does not support quadtrees! Enable quadtrees when creating it.");
-        return tree;
+    public Broadphase broadphase(){
+        if(!useTree) throw new RuntimeException("This group does not support spatial queries! Enable them when creating it.");
+        return broadphase;
+    }
+
+    /** Replaces the spatial index of this group, if it is enabled. Entities are added back on the next physics update. */
+    public EntityGroup<T> setBroadphase(Broadphase broadphase){
+        if(useTree){
+            this.broadphase = broadphase;
+        }
+        return this;
     }
 
-    /** Resizes the internal quadtree, if it is enabled.*/
+    /** Resizes the internal spatial index, if it is enabled.*/
     public void resize(float x, float y, float w, float h){
         if(useTree){
-            tree = new QuadTree<>(new Rectangle(x, y, w, h));
+            broadphase.resize(x, y, w, h);
         }
     }
 
@@ -208,6 +254,7 @@ public class EntityGroup<T extends Entity>{
 
         if(mappingEnabled()){
             map.put(type.getID(), type);
+            queuedIndices.put(type.getID(), entitiesToAdd.size - 1);
         }
 
         if(addListener != null){
@@ -229,6 +276,7 @@ public class EntityGroup<T extends Entity>{
         for(T entity : entityArray){
             entity.removed();
             entity.setGroup(null);
+            entity.setGroupIndex(-1);
         }
 
         for(T entity : entitiesToAdd)
@@ -242,6 +290,10 @@ public class EntityGroup<T extends Entity>{
         entityArray.clear();
         if(map != null)
             map.clear();
+        if(queuedIndices != null)
+            queuedIndices.clear();
+        if(broadphase != null)
+            broadphase.clear();
     }
 
     public T find(Boolf<T> pred){
@@ -253,7 +305,7 @@ public class EntityGroup<T extends Entity>{
         return null;
     }
 
-    /** Returns the logic-only array for iteration. */
+    /** Returns the logic-only array for iteration. Do not reorder it, as entities store their index in it. */
     public Array<T> all(){
         return entityArray;
     }
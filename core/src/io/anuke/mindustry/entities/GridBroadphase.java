@@ -0,0 +1,126 @@
+package io.anuke.mindustry.entities;
+
+import io.anuke.arc.collection.*;
+import io.anuke.arc.func.*;
+import io.anuke.arc.math.*;
+import io.anuke.arc.math.geom.*;
+import io.anuke.mindustry.entities.traits.*;
+
+import static io.anuke.mindustry.Vars.tilesize;
+
+/**
+ * Broadphase that stores entities in a uniform grid, by the cell of their center.
+ * Entities are only moved between cells when they cross a cell boundary, so updates do not allocate.
+ */
+@SuppressWarnings("unchecked")
+public class GridBroadphase implements Broadphase{
+    /** Size of a grid cell in world units. */
+    public static final float cellSize = tilesize * 4;
+
+    private final ObjectIntMap<SolidTrait> entityCells = new ObjectIntMap<>();
+    private final Rectangle rect = new Rectangle();
+    /** Separate rectangle for queries, which may run on several threads during the parallel update phase. */
+    private final ThreadLocal<Rectangle> queryRect = new ThreadLocal<Rectangle>(){
+        @Override
+        protected Rectangle initialValue(){
+            return new Rectangle();
+        }
+    };
+    private Array<SolidTrait>[] cells = new Array[1];
+    private float x, y;
+    private int width = 1, height = 1;
+    /** Largest hitbox size of any entity. Queries are expanded by half of this, as entities are stored by their center. */
+    private float maxSize;
+
+    @Override
+    public void update(Array<? extends Entity> entities){
+        for(int i = 0; i < entities.size; i++){
+            Entity entity = entities.get(i);
+            if(!(entity instanceof SolidTrait)) continue;
+
+            SolidTrait solid = (SolidTrait)entity;
+            solid.hitbox(rect);
+            maxSize = Math.max(maxSize, Math.max(rect.width, rect.height));
+
+            int cell = cell(solid.getX(), solid.getY());
+            int last = entityCells.get(solid, -1);
+
+            if(cell != last){
+                if(last != -1){
+                    cells[last].removeValue(solid, true);
+                }
+
+                if(cells[cell] == null){
+                    cells[cell] = new Array<>(false, 8);
+                }
+                cells[cell].add(solid);
+                entityCells.put(solid, cell);
+            }
+        }
+    }
+
+    @Override
+    public void remove(Entity entity){
+        if(!(entity instanceof SolidTrait)) return;
+
+        int last = entityCells.remove((SolidTrait)entity, -1);
+        if(last != -1){
+            cells[last].removeValue((SolidTrait)entity, true);
+        }
+    }
+
+    @Override
+    public void resize(float x, float y, float width, float height){
+        this.x = x;
+        this.y = y;
+        this.width = Math.max(Mathf.ceil(width / cellSize), 1);
+        this.height = Math.max(Mathf.ceil(height / cellSize), 1);
+        this.cells = new Array[this.width * this.height];
+        entityCells.clear();
+    }
+
+    @Override
+    public void clear(){
+        for(Array<SolidTrait> cell : cells){
+            if(cell != null){
+                cell.clear();
+            }
+        }
+        entityCells.clear();
+    }
+
+    @Override
+    public void intersect(float x, float y, float width, float height, Cons<SolidTrait> out){
+        Rectangle rect = queryRect.get();
+        float pad = maxSize / 2f;
+        int x1 = cellX(x - pad), y1 = cellY(y - pad), x2 = cellX(x + width + pad), y2 = cellY(y + height + pad);
+
+        for(int cy = y1; cy <= y2; cy++){
+            for(int cx = x1; cx <= x2; cx++){
+                Array<SolidTrait> cell = cells[cx + cy * this.width];
+                if(cell == null) continue;
+
+                for(int i = 0; i < cell.size; i++){
+                    SolidTrait solid = cell.get(i);
+                    solid.hitbox(rect);
+
+                    if(rect.overlaps(x, y, width, height)){
+                        out.get(solid);
+                    }
+                }
+            }
+        }
+    }
+
+    private int cell(float x, float y){
+        return cellX(x) + cellY(y) * width;
+    }
+
+    private int cellX(float x){
+        return Mathf.clamp((int)((x - this.x) / cellSize), 0, width - 1);
+    }
+
+    private int cellY(float y){
+        return Mathf.clamp((int)((y - this.y) / cellSize), 0, height - 1);
+    }
+}
@@ -0,0 +1,109 @@
+package io.anuke.mindustry.entities;
+
+import io.anuke.arc.collection.*;
+import io.anuke.arc.func.*;
+import io.anuke.arc.math.*;
+import io.anuke.arc.util.async.*;
+import io.anuke.mindustry.entities.traits.*;
+
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Runs the compute phase of entity updates on a worker pool, see {@link Entity#updateParallel()}.
+ * Independent jobs, such as power graphs, can be run the same way.
+ * Work is split into fixed batches. Changes deferred by each batch are applied on the calling thread afterwards,
+ * in batch order, so the result does not depend on thread scheduling.
+ */
+public class ParallelUpdater{
+    /** Number of entities computed by one task. */
+    private static final int entityBatchSize = 32;
+    /** Deferred changes of the batch that the current thread is computing; null outside of the compute phase. */
+    private static final ThreadLocal<Array<Runnable>> currentBuffer = new ThreadLocal<>();
+
+    private final AsyncExecutor executor = new AsyncExecutor(Mathf.clamp(Runtime.getRuntime().availableProcessors() - 1, 1, 16));
+    private final Array<Array<Runnable>> buffers = new Array<>();
+    private volatile Throwable error;
+
+    /**
+     * Defers a change to shared state until the compute phase has finished.
+     * If called outside of the compute phase, the change is applied immediately.
+     */
+    public static void defer(Runnable change){
+        Array<Runnable> buffer = currentBuffer.get();
+        if(buffer == null){
+            change.run();
+        }else{
+            buffer.add(change);
+        }
+    }
+
+    /** Runs the compute phase for all entities of this group, then applies deferred changes. */
+    public <T extends Entity> void compute(EntityGroup<T> group){
+        compute(group.all(), entityBatchSize, Entity::updateParallel);
+    }
+
+    /**
+     * Runs a job for every item in batches of the given size, then applies deferred changes.
+     * Jobs of different items must not touch the same state, other than through {@link #defer(Runnable)}.
+     */
+    public <T> void compute(Array<T> items, int batchSize, Cons<T> job){
+        int batches = (items.size + batchSize - 1) / batchSize;
+
+        while(buffers.size < batches){
+            buffers.add(new Array<>());
+        }
+
+        if(batches == 1){
+            //not worth handing off a single batch
+            computeBatch(items, 0, items.size, buffers.first(), job);
+        }else if(batches > 1){
+            CountDownLatch latch = new CountDownLatch(batches);
+
+            for(int b = 0; b < batches; b++){
+                int start = b * batchSize, end = Math.min(start + batchSize, items.size);
+                Array<Runnable> buffer = buffers.get(b);
+
+                executor.submit(() -> {
+                    try{
+                        computeBatch(items, start, end, buffer, job);
+                    }catch(Throwable t){
+                        error = t;
+                    }finally{
+                        latch.countDown();
+                    }
+                });
+            }
+
+            try{
+                latch.await();
+            }catch(InterruptedException e){
+                throw new RuntimeException(e);
+            }
+
+            if(error != null){
+                Throwable t = error;
+                error = null;
+                throw new RuntimeException(t);
+            }
+        }
+
+        for(int b = 0; b < batches; b++){
+            Array<Runnable> buffer = buffers.get(b);
+            for(int i = 0; i < buffer.size; i++){
+                buffer.get(i).run();
+            }
+            buffer.clear();
+        }
+    }
+
+    private <T> void computeBatch(Array<T> items, int start, int end, Array<Runnable> buffer, Cons<T> job){
+        currentBuffer.set(buffer);
+        try{
+            for(int i = start; i < end; i++){
+                job.get(items.get(i));
+            }
+        }finally{
+            currentBuffer.set(null);
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package io.anuke.mindustry.entities;
+
+import io.anuke.arc.collection.*;
+import io.anuke.arc.func.*;
+import io.anuke.arc.math.geom.*;
+import io.anuke.mindustry.entities.traits.*;
+
+/** Broadphase that rebuilds a quadtree of all entities every frame. Queries are serialized, as the tree uses shared scratch state. */
+@SuppressWarnings("unchecked")
+public class QuadTreeBroadphase implements Broadphase{
+    private QuadTree tree = new QuadTree<>(new Rectangle(0, 0, 0, 0));
+
+    @Override
+    public void update(Array<? extends Entity> entities){
+        tree.clear();
+
+        for(Entity entity : entities){
+            if(entity instanceof SolidTrait){
+                tree.insert(entity);
+            }
+        }
+    }
+
+    @Override
+    public void remove(Entity entity){
+        //the tree is rebuilt every frame
+    }
+
+    @Override
+    public void resize(float x, float y, float width, float height){
+        tree = new QuadTree<>(new Rectangle(x, y, width, height));
+    }
+
+    @Override
+    public void clear(){
+        tree.clear();
+    }
+
+    @Override
+    public synchronized void intersect(float x, float y, float width, float height, Cons<SolidTrait> out){
+        tree.getIntersect(out, x, y, width, height);
+    }
+
+    @Override
+    public synchronized void intersect(Rectangle rect, Array<SolidTrait> out){
+        tree.getIntersect(out, rect);
+    }
+}
@@ -1,6 +1,6 @@
 package io.anuke.mindustry.entities;
 
-import io.anuke.arc.collection.EnumSet;
+import io.anuke.arc.collection.Array;
 import io.anuke.arc.func.Cons;
 import io.anuke.arc.func.Boolf;
 import io.anuke.arc.math.Mathf;
@@ -15,10 +15,13 @@ import static io.anuke.mindustry.Vars.*;
 
 /** Utility class for unit and team interactions.*/
 public class Units{
-    private static Rectangle hitrect = new Rectangle();
-    private static Unit result;
-    private static float cdist;
-    private static boolean boolResult;
+    /** Query objects are kept per thread, as queries also run in the parallel update phase. */
+    private static final ThreadLocal<QueryPool> queries = new ThreadLocal<QueryPool>(){
+        @Override
+        protected QueryPool initialValue(){
+            return new QueryPool();
+        }
+    };
 
     /** @return whether this player can interact with a specific tile. if either of these are null, returns true.*/
     public static boolean canInteract(Player player, Tile tile){
@@ -55,20 +58,24 @@ public class Units{
     }
 
     public static boolean anyEntities(float x, float y, float width, float height){
-        boolResult = false;
-
-        nearby(x, y, width, height, unit -> {
-            if(boolResult) return;
-            if(!unit.isFlying()){
-                unit.hitbox(hitrect);
+        UnitQuery q = obtain(UnitQuery.modeAny, null, x, y);
+        try{
+            q.width = width;
+            q.height = height;
+
+            for(Team team : Team.all){
+                unitGroups[team.ordinal()].intersect(x, y, width, height, q);
+                if(q.found) break;
+            }
 
-                if(hitrect.overlaps(x, y, width, height)){
-                    boolResult = true;
-                }
+            if(!q.found){
+                playerGroup.intersect(x, y, width, height, q);
             }
-        });
 
-        return boolResult;
+            return q.found;
+        }finally{
+            free(q);
+        }
     }
 
     /** Returns the neareset damaged tile. */
@@ -86,7 +93,7 @@ public class Units{
     public static TileEntity findEnemyTile(Team team, float x, float y, float range, Boolf<Tile> pred){
         if(team == Team.derelict) return null;
 
-        for(Team enemy : state.teams.enemiesOf(team)){
+        for(Team enemy : state.teams.enemyArrayOf(team)){
             TileEntity entity = indexer.findTile(enemy, x, y, range, pred, true);
             if(entity != null){
                 return entity;
@@ -121,63 +128,70 @@ public class Units{
     public static Unit closestEnemy(Team team, float x, float y, float range, Boolf<Unit> predicate){
         if(team == Team.derelict) return null;
 
-        result = null;
-        cdist = 0f;
-
-        nearbyEnemies(team, x - range, y - range, range*2f, range*2f, e -> {
-            if(e.isDead() || !predicate.get(e)) return;
+        UnitQuery q = obtain(UnitQuery.modeClosest, team, x, y);
+        try{
+            q.enemies = true;
+            q.skipDead = true;
+            q.range2 = range * range;
+            q.predicate = predicate;
 
-            float dst2 = Mathf.dst2(e.x, e.y, x, y);
-            if(dst2 < range*range && (result == null || dst2 < cdist)){
-                result = e;
-                cdist = dst2;
+            for(Team enemy : state.teams.enemyArrayOf(team)){
+                unitGroups[enemy.ordinal()].intersect(x - range, y - range, range*2f, range*2f, q);
             }
-        });
 
-        return result;
+            q.filterTeam = true;
+            playerGroup.intersect(x - range, y - range, range*2f, range*2f, q);
+
+            return q.result;
+        }finally{
+            free(q);
+        }
     }
 
     /** Returns the closest ally of this team. Filter by predicate. */
     public static Unit closest(Team team, float x, float y, float range, Boolf<Unit> predicate){
-        result = null;
-        cdist = 0f;
-
-        nearby(team, x, y, range, e -> {
-            if(!predicate.get(e)) return;
-
-            float dist = Mathf.dst2(e.x, e.y, x, y);
-            if(result == null || dist < cdist){
-                result = e;
-                cdist = dist;
-            }
-        });
-
-        return result;
+        UnitQuery q = obtain(UnitQuery.modeClosest, team, x, y);
+        try{
+            q.range2 = range * range;
+            q.predicate = predicate;
+
+            unitGroups[team.ordinal()].intersect(x - range, y - range, range*2f, range*2f, q);
+            q.filterTeam = true;
+            playerGroup.intersect(x - range, y - range, range*2f, range*2f, q);
+
+            return q.result;
+        }finally{
+            free(q);
+        }
     }
 
     /** Iterates over all units in a rectangle. */
     public static void nearby(Team team, float x, float y, float width, float height, Cons<Unit> cons){
         unitGroups[team.ordinal()].intersect(x, y, width, height, cons);
-        playerGroup.intersect(x, y, width, height, player -> {
-            if(player.getTeam() == team){
-                cons.get(player);
-            }
-        });
+
+        UnitQuery q = obtain(UnitQuery.modeEach, team, x, y);
+        try{
+            q.cons = cons;
+            q.filterTeam = true;
+            playerGroup.intersect(x, y, width, height, q);
+        }finally{
+            free(q);
+        }
     }
 
     /** Iterates over all units in a circle around this position. */
     public static void nearby(Team team, float x, float y, float radius, Cons<Unit> cons){
-        unitGroups[team.ordinal()].intersect(x - radius, y - radius, radius*2f, radius*2f, unit -> {
-            if(unit.withinDst(x, y, radius)){
-                cons.get(unit);
-            }
-        });
-
-        playerGroup.intersect(x - radius, y - radius, radius*2f, radius*2f, unit -> {
-            if(unit.getTeam() == team && unit.withinDst(x, y, radius)){
-                cons.get(unit);
-            }
-        });
+        UnitQuery q = obtain(UnitQuery.modeEach, team, x, y);
+        try{
+            q.range2 = radius * radius;
+            q.cons = cons;
+
+            unitGroups[team.ordinal()].intersect(x - radius, y - radius, radius*2f, radius*2f, q);
+            q.filterTeam = true;
+            playerGroup.intersect(x - radius, y - radius, radius*2f, radius*2f, q);
+        }finally{
+            free(q);
+        }
     }
 
     /** Iterates over all units in a rectangle. */
@@ -196,17 +210,19 @@ public class Units{
 
     /** Iterates over all units that are enemies of this team. */
     public static void nearbyEnemies(Team team, float x, float y, float width, float height, Cons<Unit> cons){
-        EnumSet<Team> targets = state.teams.enemiesOf(team);
-
-        for(Team other : targets){
+        for(Team other : state.teams.enemyArrayOf(team)){
             unitGroups[other.ordinal()].intersect(x, y, width, height, cons);
         }
 
-        playerGroup.intersect(x, y, width, height, player -> {
-            if(targets.contains(player.getTeam())){
-                cons.get(player);
-            }
-        });
+        UnitQuery q = obtain(UnitQuery.modeEach, team, x, y);
+        try{
+            q.enemies = true;
+            q.filterTeam = true;
+            q.cons = cons;
+            playerGroup.intersect(x, y, width, height, q);
+        }finally{
+            free(q);
+        }
     }
 
     /** Iterates over all units that are enemies of this team. */
@@ -223,4 +239,99 @@ public class Units{
         playerGroup.all().each(cons);
     }
 
+    private static UnitQuery obtain(int mode, Team team, float x, float y){
+        QueryPool pool = queries.get();
+        if(pool.depth == pool.queries.size){
+            pool.queries.add(new UnitQuery(pool));
+        }
+
+        UnitQuery q = pool.queries.get(pool.depth++);
+        q.mode = mode;
+        q.team = team;
+        q.x = x;
+        q.y = y;
+        return q;
+    }
+
+    private static void free(UnitQuery q){
+        q.reset();
+        q.pool.depth--;
+    }
+
+    /**
+     * Per-thread stack of query objects. Queries may nest, e.g. when a predicate runs a query of its own.
+     * Every query frees its object in a finally block, so that exceptions in callbacks can't leave the stack unbalanced.
+     */
+    private static class QueryPool{
+        final Array<UnitQuery> queries = new Array<>();
+        int depth;
+    }
+
+    /**
+     * Reusable state of a single query, passed directly to the spatial index as its consumer.
+     * This avoids capturing lambdas and keeps distances as primitives.
+     */
+    private static class UnitQuery implements Cons<Unit>{
+        /** stop at the first ground unit overlapping the rectangle */
+        static final int modeAny = 0;
+        /** find the closest unit within range that matches the predicate */
+        static final int modeClosest = 1;
+        /** pass every unit within range to the consumer */
+        static final int modeEach = 2;
+
+        final QueryPool pool;
+        final Rectangle hitrect = new Rectangle();
+
+        int mode;
+        Team team;
+        float x, y, width, height;
+        /** squared range; negative for no range check */
+        float range2 = -1f;
+        /** whether units must have the query team, or be its enemies if {@link #enemies} is set */
+        boolean filterTeam;
+        boolean enemies, skipDead;
+        Boolf<Unit> predicate;
+        Cons<Unit> cons;
+
+        Unit result;
+        float cdist;
+        boolean found;
+
+        UnitQuery(QueryPool pool){
+            this.pool = pool;
+        }
+
+        @Override
+        public void get(Unit unit){
+            if(filterTeam && (enemies ? !state.teams.areEnemies(team, unit.getTeam()) : unit.getTeam() != team)) return;
+
+            if(mode == modeAny){
+                if(found || unit.isFlying()) return;
+
+                unit.hitbox(hitrect);
+                found = hitrect.overlaps(x, y, width, height);
+                return;
+            }
+
+            float dst2 = Mathf.dst2(unit.x, unit.y, x, y);
+            if(range2 >= 0f && dst2 >= range2) return;
+
+            if(mode == modeEach){
+                cons.get(unit);
+            }else if(!(skipDead && unit.isDead()) && (result == null || dst2 < cdist) && predicate.get(unit)){
+                result = unit;
+                cdist = dst2;
+            }
+        }
+
+        void reset(){
+            team = null;
+            range2 = -1f;
+            filterTeam = enemies = skipDead = found = false;
+            predicate = null;
+            cons = null;
+            result = null;
+            cdist = 0f;
+        }
+    }
 }
@@ -10,6 +10,13 @@ public interface Entity extends MoveTrait{
 
     default void update(){}
 
+    /**
+     * Compute phase of the update, which runs on worker threads before {@link #update()} when parallel updates are enabled.
+     * Implementations may only read shared state and write to fields of this entity.
+     * Any other change must be deferred with {@link io.anuke.mindustry.entities.ParallelUpdater#defer(Runnable)}.
+     */
+    default void updateParallel(){}
+
     default void removed(){}
 
     default void added(){}
@@ -36,6 +43,12 @@ public interface Entity extends MoveTrait{
 
     void setGroup(EntityGroup group);
 
+    /** @return the index of this entity in the array of its group, or -1 if it has not been added yet. */
+    int getGroupIndex();
+
+    /** Sets the index of this entity in its group. Only called by {@link EntityGroup}. */
+    void setGroupIndex(int index);
+
     default boolean isAdded(){
         return getGroup() != null;
     }
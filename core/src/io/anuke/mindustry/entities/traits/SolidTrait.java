@@ -3,6 +3,7 @@ package io.anuke.mindustry.entities.traits;
 
 import io.anuke.arc.math.geom.*;
 import io.anuke.arc.math.geom.QuadTree.QuadTreeObject;
+import io.anuke.arc.util.ArcAnnotate.*;
 import io.anuke.mindustry.Vars;
 
 public interface SolidTrait extends QuadTreeObject, MoveTrait, VelocityTrait, Entity, Position{
@@ -32,6 +33,19 @@ public interface SolidTrait extends QuadTreeObject, MoveTrait, VelocityTrait, En
     default void collision(SolidTrait other, float x, float y){
     }
 
+    /** @return whether this entity only collides with the first entity along its path this frame, see {@link #collisionSwept(SolidTrait, float, float)}. */
+    default boolean collidesSwept(){
+        return false;
+    }
+
+    /**
+     * Called once per frame by group collisions for entities that collide swept.
+     * @param other the first entity that the path of this entity enters, or null if there is none
+     * @param x the position of this entity when the path enters the other entity
+     */
+    default void collisionSwept(@Nullable SolidTrait other, float x, float y){
+    }
+
     default void move(float x, float y){
         Vars.collisions.move(this, x, y);
     }
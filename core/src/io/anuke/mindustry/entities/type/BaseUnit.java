@@ -2,6 +2,7 @@ package io.anuke.mindustry.entities.type;
 
 import io.anuke.annotations.Annotations.*;
 import io.anuke.arc.*;
+import io.anuke.arc.func.*;
 import io.anuke.arc.graphics.g2d.*;
 import io.anuke.arc.math.*;
 import io.anuke.arc.math.geom.*;
@@ -44,6 +45,13 @@ public abstract class BaseUnit extends Unit implements ShooterTrait{
     protected Interval timer = new Interval(5);
     protected StateMachine state = new StateMachine();
     protected TargetTrait target;
+    /** target found in the compute phase of this frame, see {@link #updateParallel()} */
+    protected TargetTrait preparedTarget;
+    protected float preparedTime = -1f;
+    /** time at which the kill check last ran in the compute phase */
+    protected float killCheckTime = -1f;
+    /** created once, so that target searches do not allocate */
+    protected final Boolf<Unit> targetPredicate = u -> type.targetAir || !u.isFlying();
 
     protected int spawner = noSpawner;
 
@@ -174,12 +182,23 @@ public abstract class BaseUnit extends Unit implements ShooterTrait{
     }
 
     public void targetClosest(){
-        TargetTrait newTarget = Units.closestTarget(team, x, y, Math.max(getWeapon().bullet.range(), type.range), u -> type.targetAir || !u.isFlying());
+        TargetTrait newTarget = preparedTime == Time.time() ? preparedTarget : findTarget();
         if(newTarget != null){
             target = newTarget;
         }
     }
 
+    /** @return the closest valid target in range. Only reads shared state, so this can run in the compute phase. */
+    protected TargetTrait findTarget(){
+        return Units.closestTarget(team, x, y, Math.max(getWeapon().bullet.range(), type.range), targetPredicate);
+    }
+
+    /** @return whether this unit is in an invalid position or has lost its spawner, and should be killed. */
+    protected boolean shouldKill(){
+        return (!isFlying() && (world.tileWorld(x, y) != null && !(world.tileWorld(x, y).block() instanceof BuildBlock) && world.tileWorld(x, y).solid())) ||
+            (spawner != noSpawner && (world.tile(spawner) == null || !(world.tile(spawner).entity instanceof UnitFactoryEntity)));
+    }
+
     public Tile getClosest(BlockFlag flag){
         return Geometry.findClosest(x, y, indexer.getAllied(team, flag));
     }
@@ -189,7 +208,7 @@ public abstract class BaseUnit extends Unit implements ShooterTrait{
     }
 
     public TileEntity getClosestEnemyCore(){
-        for(Team enemy : Vars.state.teams.enemiesOf(team)){
+        for(Team enemy : Vars.state.teams.enemyArrayOf(team)){
             Tile tile = Geometry.findClosest(x, y, Vars.state.teams.get(enemy).cores);
             if(tile != null){
                 return tile.entity;
@@ -271,6 +290,22 @@ public abstract class BaseUnit extends Unit implements ShooterTrait{
         return type.flying;
     }
 
+    @Override
+    public void updateParallel(){
+        if(isDead() || net.client()) return;
+
+        if(shouldKill()){
+            ParallelUpdater.defer(this::kill);
+        }
+        killCheckTime = Time.time();
+
+        //only search when the target timer is about to fire, as the result would otherwise be unused
+        if(timer.check(timerTarget, 20)){
+            preparedTarget = findTarget();
+            preparedTime = Time.time();
+        }
+    }
+
     @Override
     public void update(){
         if(isDead()){
@@ -287,16 +322,13 @@ public abstract class BaseUnit extends Unit implements ShooterTrait{
             return;
         }
 
-        if(!isFlying() && (world.tileWorld(x, y) != null && !(world.tileWorld(x, y).block() instanceof BuildBlock) && world.tileWorld(x, y).solid())){
+        //already checked in the compute phase this frame
+        if(killCheckTime != Time.time() && shouldKill()){
             kill();
         }
 
         avoidOthers();
 
-        if(spawner != noSpawner && (world.tile(spawner) == null || !(world.tile(spawner).entity instanceof UnitFactoryEntity))){
-            kill();
-        }
-
         updateTargeting();
 
         state.update();
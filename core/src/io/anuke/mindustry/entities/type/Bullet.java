@@ -1,11 +1,13 @@
 package io.anuke.mindustry.entities.type;
 
 import io.anuke.annotations.Annotations.*;
+import io.anuke.arc.collection.*;
 import io.anuke.arc.math.*;
 import io.anuke.arc.math.geom.*;
 import io.anuke.arc.util.*;
 import io.anuke.arc.util.pooling.Pool.*;
 import io.anuke.arc.util.pooling.*;
+import io.anuke.mindustry.core.World.*;
 import io.anuke.mindustry.entities.*;
 import io.anuke.mindustry.entities.bullet.*;
 import io.anuke.mindustry.entities.effect.*;
@@ -23,6 +25,13 @@ public class Bullet extends SolidEntity implements DamageTrait, ScaleTrait, Pool
     private Team team;
     private Object data;
     private boolean supressCollision, supressOnce, initialized, deflected;
+    /** whether this bullet collides with the first tile or unit along its path in this frame; see {@link #collisionSwept(SolidTrait, float, float)} */
+    private boolean swept, sweptTiles, tileHit;
+    /** maximum squared distance from the last position at which tiles can be hit */
+    private float tileRange2 = Float.MAX_VALUE;
+    private final Raycaster tileCollider = this::collideTile;
+    /** motion state of all bullets during {@link #updateAll(EntityGroup)} */
+    private static final Motion motion = new Motion();
 
     protected BulletType type;
     protected Entity owner;
@@ -181,6 +190,37 @@ public class Bullet extends SolidEntity implements DamageTrait, ScaleTrait, Pool
         }
     }
 
+    /**
+     * Updates all bullets of a group. Motion, drag and lifetime are advanced for all bullets at once in a tight loop over
+     * primitive arrays; bullet objects are only read before it, after the type callbacks, and written back after it, before collisions.
+     * Each bullet goes through the same steps as in {@link #update()}, but the callbacks of all bullets run before any of them collides.
+     */
+    public static void updateAll(EntityGroup<Bullet> group){
+        group.updateEvents();
+
+        if(group.useTree()){
+            collisions.updatePhysics(group);
+        }
+
+        //bullets added or removed during the update are queued until the next frame, so the array does not change
+        Array<Bullet> bullets = group.all();
+        motion.begin(bullets.size);
+
+        for(int i = 0; i < bullets.size; i++){
+            Bullet bullet = bullets.get(i);
+            bullet.type.update(bullet);
+            motion.read(i, bullet);
+        }
+
+        motion.step(bullets.size, Time.delta());
+
+        for(int i = 0; i < bullets.size; i++){
+            Bullet bullet = bullets.get(i);
+            motion.write(i, bullet);
+            bullet.updateCollisions();
+        }
+    }
+
     @Override
     public void update(){
         type.update(this);
@@ -193,32 +233,22 @@ public class Bullet extends SolidEntity implements DamageTrait, ScaleTrait, Pool
         time += Time.delta() * 1f / (lifeScl);
         time = Mathf.clamp(time, 0, type.lifetime);
 
+        updateCollisions();
+    }
+
+    private void updateCollisions(){
         if(time >= type.lifetime){
             if(!supressCollision) type.despawned(this);
             remove();
         }
 
-        if(type.hitTiles && collidesTiles() && !supressCollision && initialized){
-            world.raycastEach(world.toTile(lastPosition().x), world.toTile(lastPosition().y), world.toTile(x), world.toTile(y), (x, y) -> {
-
-                Tile tile = world.ltile(x, y);
-                if(tile == null) return false;
+        //bullets that move further than their own size and stop at the first hit resolve tiles and units together, after group collisions
+        swept = !type.pierce && !supressCollision && lastPosition().dst2(x, y) > type.hitSize * type.hitSize;
+        sweptTiles = swept && collidesTilesNow();
 
-                if(tile.entity != null && tile.entity.collide(this) && type.collides(this, tile) && !tile.entity.isDead() && (type.collidesTeam || tile.getTeam() != team)){
-                    if(tile.getTeam() != team){
-                        tile.entity.collision(this);
-                    }
-
-                    if(!supressCollision){
-                        type.hitTile(this, tile);
-                        remove();
-                    }
-
-                    return true;
-                }
-
-                return false;
-            });
+        if(!swept && collidesTilesNow()){
+            tileRange2 = Float.MAX_VALUE;
+            world.raycastEach(world.toTile(lastPosition().x), world.toTile(lastPosition().y), world.toTile(x), world.toTile(y), tileCollider);
         }
 
         if(supressOnce){
@@ -229,6 +259,61 @@ public class Bullet extends SolidEntity implements DamageTrait, ScaleTrait, Pool
         initialized = true;
     }
 
+    private boolean collidesTilesNow(){
+        return type.hitTiles && collidesTiles() && !supressCollision && initialized;
+    }
+
+    private boolean collideTile(int x, int y){
+        //past the first unit hit
+        if(Mathf.dst2(lastPosition().x, lastPosition().y, x * tilesize, y * tilesize) > tileRange2) return true;
+
+        Tile tile = world.ltile(x, y);
+        if(tile == null) return false;
+
+        if(tile.entity != null && tile.entity.collide(this) && type.collides(this, tile) && !tile.entity.isDead() && (type.collidesTeam || tile.getTeam() != team)){
+            if(tile.getTeam() != team){
+                tile.entity.collision(this);
+            }
+
+            if(!supressCollision){
+                type.hitTile(this, tile);
+                remove();
+            }
+
+            tileHit = true;
+            return true;
+        }
+
+        return false;
+    }
+
+    @Override
+    public boolean collidesSwept(){
+        return swept;
+    }
+
+    /** Tiles are only walked up to the first unit hit, and whichever is hit first is collided with. */
+    @Override
+    public void collisionSwept(SolidTrait other, float hitx, float hity){
+        if(!isAdded()) return;
+
+        Vector2 last = lastPosition();
+        tileHit = false;
+
+        if(sweptTiles){
+            //tiles overlapping the unit's position can still be hit first
+            float range = other == null ? Float.MAX_VALUE : last.dst(hitx, hity) + tilesize / 2f;
+            tileRange2 = other == null ? Float.MAX_VALUE : range * range;
+
+            world.raycastEach(world.toTile(last.x), world.toTile(last.y), world.toTile(x), world.toTile(y), tileCollider);
+        }
+
+        if(other != null && !tileHit){
+            collision(other, hitx, hity);
+            other.collision(this, hitx, hity);
+        }
+    }
+
     @Override
     public void reset(){
         type = null;
@@ -243,6 +328,9 @@ public class Bullet extends SolidEntity implements DamageTrait, ScaleTrait, Pool
         supressOnce = false;
         deflected = false;
         initialized = false;
+        swept = false;
+        sweptTiles = false;
+        tileHit = false;
     }
 
     @Override
@@ -320,4 +408,55 @@ public class Bullet extends SolidEntity implements DamageTrait, ScaleTrait, Pool
         if(angle < 0) angle += 360;
         return angle;
     }
+
+    /** Structure-of-arrays copy of the motion state of bullets, indexed by their position in the group. */
+    private static class Motion{
+        float[] x = {}, y = {}, vx = {}, vy = {}, time = {}, lifetime = {}, drag = {}, lifeScl = {};
+
+        void begin(int size){
+            if(x.length < size){
+                int capacity = Math.max(size, x.length * 2);
+                x = new float[capacity];
+                y = new float[capacity];
+                vx = new float[capacity];
+                vy = new float[capacity];
+                time = new float[capacity];
+                lifetime = new float[capacity];
+                drag = new float[capacity];
+                lifeScl = new float[capacity];
+            }
+        }
+
+        void read(int i, Bullet bullet){
+            x[i] = bullet.x;
+            y[i] = bullet.y;
+            vx[i] = bullet.velocity.x;
+            vy[i] = bullet.velocity.y;
+            time[i] = bullet.time;
+            lifetime[i] = bullet.type.lifetime;
+            drag[i] = bullet.type.drag;
+            lifeScl[i] = bullet.lifeScl;
+        }
+
+        /** Same as the motion in {@link Bullet#update()}, with the same operations in the same order. */
+        void step(int size, float delta){
+            for(int i = 0; i < size; i++){
+                x[i] += vx[i] * delta;
+                y[i] += vy[i] * delta;
+
+                float scl = Mathf.clamp(1f - drag[i] * delta);
+                vx[i] *= scl;
+                vy[i] *= scl;
+
+                time[i] = Mathf.clamp(time[i] + delta * 1f / lifeScl[i], 0, lifetime[i]);
+            }
+        }
+
+        void write(int i, Bullet bullet){
+            bullet.x = x[i];
+            bullet.y = y[i];
+            bullet.velocity.set(vx[i], vy[i]);
+            bullet.time = time[i];
+        }
+    }
 }
@@ -44,6 +44,8 @@ public class TileEntity extends BaseEntity implements TargetTrait, HealthTrait{
     private boolean dead = false;
     private boolean sleeping;
     private float sleepTime;
+    private int syncVersion;
+    private float lastHealth;
     private @Nullable SoundLoop sound;
 
     @Remote(called = Loc.server, unreliable = true)
@@ -103,7 +105,7 @@ public class TileEntity extends BaseEntity implements TargetTrait, HealthTrait{
         }
     }
 
-    /** Call when this entity is updating. This wakes it up. */
+    /** Call when this entity is updating, or when something it may be waiting on has changed. This wakes it up. */
     public void noSleep(){
         sleepTime = 0f;
         if(sleeping){
@@ -121,6 +123,25 @@ public class TileEntity extends BaseEntity implements TargetTrait, HealthTrait{
         return dead || tile.entity != this;
     }
 
+    /** Marks state written in {@link #write(DataOutput)} as changed. Module state is tracked by the modules themselves. */
+    public void markDirty(){
+        syncVersion++;
+    }
+
+    /** @return a counter that changes whenever state written in {@link #write(DataOutput)} changes. Used to only sync changed entities. */
+    public int syncVersion(){
+        if(health != lastHealth){
+            lastHealth = health;
+            syncVersion++;
+        }
+
+        return syncVersion +
+            (items == null ? 0 : items.syncVersion()) +
+            (liquids == null ? 0 : liquids.syncVersion()) +
+            (power == null ? 0 : power.syncVersion()) +
+            (cons == null ? 0 : cons.syncVersion());
+    }
+
     @CallSuper
     public void write(DataOutput stream) throws IOException{
         stream.writeShort((short)health);
@@ -145,6 +166,9 @@ public class TileEntity extends BaseEntity implements TargetTrait, HealthTrait{
         if(power != null) power.read(stream);
         if(liquids != null) liquids.read(stream);
         if(cons != null) cons.read(stream);
+
+        //synced state may give a sleeping entity something to do again
+        noSleep();
     }
 
     /** Returns the version of this TileEntity IO code.*/
@@ -322,8 +346,12 @@ public class TileEntity extends BaseEntity implements TargetTrait, HealthTrait{
             cons.update();
         }
 
-        if(power != null){
-            power.graph.update();
+        if(block.idleSleep){
+            if(block.isIdle(tile)){
+                sleep();
+            }else{
+                noSleep();
+            }
         }
     }
 
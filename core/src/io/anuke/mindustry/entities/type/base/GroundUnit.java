@@ -237,7 +237,7 @@ public class GroundUnit extends BaseUnit{
 
     protected void moveAwayFromCore(){
         Team enemy = null;
-        for(Team team : Vars.state.teams.enemiesOf(team)){
+        for(Team team : Vars.state.teams.enemyArrayOf(team)){
             if(Vars.state.teams.isActive(team)){
                 enemy = team;
                 break;
@@ -245,7 +245,7 @@ public class GroundUnit extends BaseUnit{
         }
 
         if(enemy == null){
-            for(Team team : Vars.state.teams.enemiesOf(team)){
+            for(Team team : Vars.state.teams.enemyArrayOf(team)){
                 enemy = team;
                 break;
             }
@@ -36,6 +36,14 @@ public class Teams{
         return get(team).enemies;
     }
 
+    /**
+     * Returns all enemies of this team, in ordinal order.
+     * Unlike iterating {@link #enemiesOf(Team)}, this does not allocate and is safe to use from several threads.
+     */
+    public Team[] enemyArrayOf(Team team){
+        return get(team).enemyArray;
+    }
+
     /** Returns whether {@param other} is an enemy of {@param #team}. */
     public boolean areEnemies(Team team, Team other){
         return enemiesOf(team).contains(other);
@@ -50,12 +58,15 @@ public class Teams{
     public static class TeamData{
         public final ObjectSet<Tile> cores = new ObjectSet<>();
         public final EnumSet<Team> enemies;
+        /** The same teams as {@link #enemies}, in ordinal order. */
+        public final Team[] enemyArray;
         public final Team team;
         public Queue<BrokenBlock> brokenBlocks = new Queue<>();
 
         public TeamData(Team team, EnumSet<Team> enemies){
             this.team = team;
             this.enemies = enemies;
+            this.enemyArray = Array.with(Team.all).select(enemies::contains).toArray(Team.class);
         }
     }
 
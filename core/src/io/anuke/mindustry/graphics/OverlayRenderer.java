@@ -95,7 +95,7 @@ public class OverlayRenderer{
         Lines.stroke(buildFadeTime * 2f);
 
         if(buildFadeTime > 0.005f){
-            for(Team enemy : state.teams.enemiesOf(player.getTeam())){
+            for(Team enemy : state.teams.enemyArrayOf(player.getTeam())){
                 for(Tile core : state.teams.get(enemy).cores){
                     float dst = Mathf.dst(player.x, player.y, core.drawx(), core.drawy());
                     if(dst < state.rules.enemyCoreBuildRadius * 1.5f){
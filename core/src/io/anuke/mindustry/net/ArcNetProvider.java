@@ -295,6 +295,12 @@ public class ArcNetProvider implements NetProvider{
             return connection.isConnected();
         }
 
+        @Override
+        public boolean canSendAsync(){
+            //writes are synchronized by the connection itself
+            return true;
+        }
+
         @Override
         public void sendStream(Streamable stream){
             connection.addListener(new InputStreamSender(stream.stream, 512){
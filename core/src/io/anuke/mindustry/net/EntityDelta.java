@@ -0,0 +1,85 @@
+package io.anuke.mindustry.net;
+
+import java.io.*;
+
+/**
+ * Encodes the difference between two serialized entity states.
+ * States are split into 4-byte chunks; a bitmask marks which chunks have changed, and only those chunks are written.
+ */
+public class EntityDelta{
+    /** Record types for entity snapshots. */
+    public static final byte full = 0, delta = 1, unchanged = 2;
+    /** Size of a chunk in bytes. */
+    public static final int chunkSize = 4;
+    /**
+     * Deltas are only made from acknowledged states that are less than this many snapshots old, so clients only need to keep
+     * this many recent states of each entity. Must be a power of two.
+     */
+    public static final int maxBaseAge = 32;
+
+    /** @return whether any bytes of the state, starting at an offset, differ from the base. Both must have the same length. */
+    public static boolean changed(byte[] base, byte[] state, int offset, int length){
+        for(int i = 0; i < length; i++){
+            if(base[i] != state[offset + i]) return true;
+        }
+        return false;
+    }
+
+    /** Writes the length, change mask and changed chunks of a state, starting at an offset, relative to a base of the same length. */
+    public static void write(DataOutput output, byte[] base, byte[] state, int stateOffset, int length) throws IOException{
+        int chunks = (length + chunkSize - 1) / chunkSize;
+        output.writeShort(length);
+
+        for(int m = 0; m < chunks; m += 8){
+            int mask = 0;
+            for(int c = m; c < Math.min(m + 8, chunks); c++){
+                if(chunkChanged(base, state, stateOffset, c * chunkSize, length)){
+                    mask |= 1 << (c - m);
+                }
+            }
+            output.writeByte(mask);
+        }
+
+        for(int c = 0; c < chunks; c++){
+            int offset = c * chunkSize;
+            if(chunkChanged(base, state, stateOffset, offset, length)){
+                output.write(state, stateOffset + offset, Math.min(chunkSize, length - offset));
+            }
+        }
+    }
+
+    /**
+     * Reads a delta written by {@link #write} and applies it to a copy of the base.
+     * All delta bytes are always consumed, even if the base is unusable.
+     * @return the patched state, or null if the base is missing or has a different length.
+     */
+    public static byte[] read(DataInput input, byte[] base) throws IOException{
+        int length = input.readUnsignedShort();
+        int chunks = (length + chunkSize - 1) / chunkSize;
+        byte[] masks = new byte[(chunks + 7) / 8];
+        input.readFully(masks);
+
+        byte[] result = base != null && base.length == length ? base.clone() : null;
+        byte[] skip = result == null ? new byte[chunkSize] : null;
+
+        for(int c = 0; c < chunks; c++){
+            if((masks[c / 8] & (1 << (c % 8))) == 0) continue;
+
+            int offset = c * chunkSize, size = Math.min(chunkSize, length - offset);
+            if(result != null){
+                input.readFully(result, offset, size);
+            }else{
+                input.readFully(skip, 0, size);
+            }
+        }
+
+        return result;
+    }
+
+    private static boolean chunkChanged(byte[] base, byte[] state, int stateOffset, int offset, int length){
+        for(int i = offset; i < Math.min(offset + chunkSize, length); i++){
+            if(base[i] != state[stateOffset + i]) return true;
+        }
+        return false;
+    }
+}
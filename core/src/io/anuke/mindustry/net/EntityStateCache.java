@@ -0,0 +1,52 @@
+package io.anuke.mindustry.net;
+
+import io.anuke.arc.collection.*;
+import io.anuke.arc.util.io.*;
+import io.anuke.mindustry.entities.traits.*;
+
+import java.io.*;
+
+/**
+ * Caches the serialized state of synced entities for a single sync tick.
+ * Each entity is only written once per tick, regardless of how many players it is sent to.
+ * All states are written into one buffer that is reused between ticks; each entity keeps its offset and length in it.
+ */
+public class EntityStateCache{
+    private final ReusableByteOutStream stream = new ReusableByteOutStream();
+    private final DataOutputStream data = new DataOutputStream(stream);
+    private final IntIntMap offsets = new IntIntMap(), lengths = new IntIntMap();
+
+    /** Discards all cached states. Call at the start of each sync tick. */
+    public void clear(){
+        stream.reset();
+        offsets.clear();
+        lengths.clear();
+    }
+
+    /**
+     * Writes the state of this entity, if this hasn't happened yet this tick.
+     * Its location in {@link #buffer()} is then given by {@link #offset(SyncTrait)} and {@link #length(SyncTrait)}.
+     */
+    public void write(SyncTrait entity) throws IOException{
+        if(offsets.containsKey(entity.getID())) return;
+
+        int offset = stream.size();
+        entity.write(data);
+        data.flush();
+        offsets.put(entity.getID(), offset);
+        lengths.put(entity.getID(), stream.size() - offset);
+    }
+
+    /** @return the buffer containing all states written this tick. May change after each write; must not be modified. */
+    public byte[] buffer(){
+        return stream.getBytes();
+    }
+
+    public int offset(SyncTrait entity){
+        return offsets.get(entity.getID(), 0);
+    }
+
+    public int length(SyncTrait entity){
+        return lengths.get(entity.getID(), 0);
+    }
+}
@@ -1,12 +1,15 @@
 package io.anuke.mindustry.net;
 
+import io.anuke.arc.collection.*;
 import io.anuke.arc.util.*;
 import io.anuke.arc.util.ArcAnnotate.*;
+import io.anuke.arc.util.pooling.*;
 import io.anuke.mindustry.entities.type.*;
 import io.anuke.mindustry.gen.*;
 import io.anuke.mindustry.net.Administration.*;
 import io.anuke.mindustry.net.Net.*;
 import io.anuke.mindustry.net.Packets.*;
+import io.anuke.mindustry.net.SnapshotSender.*;
 
 import java.io.*;
 
@@ -26,6 +29,35 @@ public abstract class NetConnection{
     public boolean hasConnected, hasBegunConnecting, hasDisconnected;
     public float viewWidth, viewHeight, viewX, viewY;
 
+    /** Maps the IDs of synced entities this client currently knows about to their group ID. */
+    public final IntIntMap syncedEntities = new IntIntMap();
+    /** ID of the first snapshot each synced entity was sent in since it last became relevant to this client. */
+    public final IntIntMap syncedSince = new IntIntMap();
+    /** Amount of entity snapshots sent to this connection. */
+    public int entitySnapshots;
+    /** Amount of entity snapshot packets sent to this connection. */
+    public int entityPackets;
+    /** Last state of each synced entity that the client acknowledged, used as the base for delta encoding. */
+    public final IntMap<byte[]> baselines = new IntMap<>();
+    /** ID of the snapshot each baseline was sent in. */
+    public final IntIntMap baselineIDs = new IntIntMap();
+    /** Entity states of unacknowledged snapshot packets, by packet ID. */
+    public final IntMap<SentStates> pendingEntitySnapshots = new IntMap<>();
+    /** ID of the last snapshot sent as a keyframe. */
+    public int lastKeyframe = -1;
+    /** Whether the next snapshot should be a keyframe, as the client could not apply a delta. */
+    public boolean keyframeRequested;
+    /** Amount of block snapshots sent to this connection. */
+    public int blockSnapshots;
+    /** Sync version of each synced block entity last acknowledged by the client, by entity ID. */
+    public final IntIntMap blockVersions = new IntIntMap();
+    /** Sync version of each synced block entity that was sent, but not acknowledged yet, by entity ID. */
+    public final IntIntMap sentBlockVersions = new IntIntMap();
+    /** Unacknowledged block snapshots, mapping snapshot IDs to pairs of entity ID and sync version. */
+    public final IntMap<IntArray> pendingBlockSnapshots = new IntMap<>();
+    /** Entity snapshots waiting to be compressed and sent. */
+    public final SnapshotQueue snapshotQueue = new SnapshotQueue();
+
     public NetConnection(String address){
         this.address = address;
     }
@@ -64,10 +96,31 @@ public abstract class NetConnection{
         netServer.admins.save();
     }
 
+    /** Forgets all entity sync state. Used when the client reloads the world. */
+    public void resetEntitySync(){
+        syncedEntities.clear();
+        syncedSince.clear();
+        baselines.clear();
+        baselineIDs.clear();
+        for(SentStates sent : pendingEntitySnapshots.values()){
+            Pools.free(sent);
+        }
+        pendingEntitySnapshots.clear();
+        keyframeRequested = true;
+        blockVersions.clear();
+        sentBlockVersions.clear();
+        pendingBlockSnapshots.clear();
+    }
+
     public boolean isConnected(){
         return true;
     }
 
+    /** @return whether packets can be sent to this connection from threads other than the main thread. */
+    public boolean canSendAsync(){
+        return false;
+    }
+
     public void sendStream(Streamable stream){
         try{
             int cid;
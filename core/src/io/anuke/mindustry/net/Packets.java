@@ -107,6 +107,45 @@ public class Packets{
         }
     }
 
+    /** Entity snapshot, sent directly instead of through a remote call so it can be written from worker threads. */
+    public static class EntitySnapshotPacket implements Packet{
+        public byte groupID;
+        public short amount;
+        public int snapshotID, packetID;
+        public boolean keyframe;
+        public short dataLen;
+        public byte[] data;
+
+        @Override
+        public void write(ByteBuffer buffer){
+            buffer.put(groupID);
+            buffer.putShort(amount);
+            buffer.putInt(snapshotID);
+            buffer.putInt(packetID);
+            buffer.put(keyframe ? (byte)1 : 0);
+            buffer.putShort(dataLen);
+            buffer.putShort((short)data.length);
+            buffer.put(data);
+        }
+
+        @Override
+        public void read(ByteBuffer buffer){
+            groupID = buffer.get();
+            amount = buffer.getShort();
+            snapshotID = buffer.getInt();
+            packetID = buffer.getInt();
+            keyframe = buffer.get() == 1;
+            dataLen = buffer.getShort();
+            data = new byte[buffer.getShort()];
+            buffer.get(data);
+        }
+
+        @Override
+        public boolean isUnimportant(){
+            return true;
+        }
+    }
+
     /** Marks the beginning of a stream. */
     public static class StreamBegin implements Packet{
         private static int lastid;
@@ -0,0 +1,52 @@
+package io.anuke.mindustry.net;
+
+import io.anuke.arc.collection.*;
+import io.anuke.arc.util.io.*;
+import io.anuke.arc.util.pooling.Pool.*;
+
+/**
+ * Entity states sent to a connection in one snapshot packet.
+ * They are kept until the client acknowledges the packet, and then become the baselines that later deltas are made from.
+ */
+public class SentStates implements Poolable{
+    /** ID of the snapshot the packet belongs to. */
+    public int snapshotID;
+
+    private final IntArray ids = new IntArray(), offsets = new IntArray();
+    private final ReusableByteOutStream data = new ReusableByteOutStream();
+
+    /** Copies the state of an entity, as the buffer it is read from is reused. */
+    public void add(int id, byte[] state, int offset, int length){
+        ids.add(id);
+        offsets.add(data.size());
+        data.write(state, offset, length);
+    }
+
+    public int size(){
+        return ids.size;
+    }
+
+    public int id(int index){
+        return ids.get(index);
+    }
+
+    /** @return the buffer that the state at an index is stored in, at {@link #offset(int)}. */
+    public byte[] buffer(){
+        return data.getBytes();
+    }
+
+    public int offset(int index){
+        return offsets.get(index);
+    }
+
+    public int length(int index){
+        return (index + 1 < offsets.size ? offsets.get(index + 1) : data.size()) - offsets.get(index);
+    }
+
+    @Override
+    public void reset(){
+        ids.clear();
+        offsets.clear();
+        data.reset();
+    }
+}
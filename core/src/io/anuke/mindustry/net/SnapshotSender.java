@@ -0,0 +1,91 @@
+package io.anuke.mindustry.net;
+
+import io.anuke.arc.*;
+import io.anuke.arc.math.*;
+import io.anuke.arc.util.*;
+import io.anuke.arc.util.async.*;
+import io.anuke.mindustry.net.Net.*;
+import io.anuke.mindustry.net.Packets.*;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import static io.anuke.mindustry.Vars.net;
+
+/**
+ * Compresses and sends entity snapshots on a worker pool, so that large snapshots or slow connections don't stall the logic thread.
+ * Snapshots of a single connection are always compressed and sent in the order they were queued.
+ */
+public class SnapshotSender{
+    /** Maximum amount of unsent snapshot packets per connection. Connections above this limit should not be given new snapshots. */
+    private static final int maxQueued = 24;
+
+    private final AsyncExecutor executor = new AsyncExecutor(Mathf.clamp(Runtime.getRuntime().availableProcessors() - 1, 1, 4));
+
+    /** @return whether this connection has too many unsent snapshots, and should be skipped until they are sent. */
+    public boolean isCongested(NetConnection con){
+        return con.snapshotQueue.size.get() >= maxQueued;
+    }
+
+    /** Queues an uncompressed entity snapshot for sending. The data array must not be modified afterwards. */
+    public void send(NetConnection con, byte groupID, short amount, int snapshotID, int packetID, boolean keyframe, byte[] data){
+        EntitySnapshotPacket packet = new EntitySnapshotPacket();
+        packet.groupID = groupID;
+        packet.amount = amount;
+        packet.snapshotID = snapshotID;
+        packet.packetID = packetID;
+        packet.keyframe = keyframe;
+        packet.data = data;
+
+        SnapshotQueue queue = con.snapshotQueue;
+        queue.size.incrementAndGet();
+        queue.packets.add(packet);
+
+        if(queue.running.compareAndSet(false, true)){
+            executor.submit(() -> drain(con));
+        }
+    }
+
+    private void drain(NetConnection con){
+        SnapshotQueue queue = con.snapshotQueue;
+
+        while(true){
+            EntitySnapshotPacket packet;
+            while((packet = queue.packets.poll()) != null){
+                try{
+                    packet.dataLen = (short)packet.data.length;
+                    packet.data = net.compressSnapshot(packet.data);
+                }catch(Throwable t){
+                    Log.err(t);
+                    queue.size.decrementAndGet();
+                    continue;
+                }
+
+                if(con.canSendAsync()){
+                    con.send(packet, SendMode.udp);
+                    queue.size.decrementAndGet();
+                }else{
+                    EntitySnapshotPacket result = packet;
+                    Core.app.post(() -> {
+                        con.send(result, SendMode.udp);
+                        queue.size.decrementAndGet();
+                    });
+                }
+            }
+
+            queue.running.set(false);
+
+            //a snapshot may have been queued after the last poll; only continue if no other task has picked it up
+            if(queue.packets.isEmpty() || !queue.running.compareAndSet(false, true)){
+                return;
+            }
+        }
+    }
+
+    /** Per-connection queue of snapshots waiting to be sent. */
+    public static class SnapshotQueue{
+        final ConcurrentLinkedQueue<EntitySnapshotPacket> packets = new ConcurrentLinkedQueue<>();
+        final AtomicInteger size = new AtomicInteger();
+        final AtomicBoolean running = new AtomicBoolean();
+    }
+}
@@ -1,6 +1,7 @@
 package io.anuke.mindustry.ui.fragments;
 
 import io.anuke.arc.*;
+import io.anuke.arc.collection.Array;
 import io.anuke.arc.graphics.g2d.*;
 import io.anuke.arc.scene.*;
 import io.anuke.arc.scene.event.*;
@@ -8,6 +9,7 @@ import io.anuke.arc.scene.ui.*;
 import io.anuke.arc.scene.ui.layout.*;
 import io.anuke.arc.util.*;
 import io.anuke.mindustry.core.GameState.*;
+import io.anuke.mindustry.entities.type.Player;
 import io.anuke.mindustry.gen.*;
 import io.anuke.mindustry.graphics.*;
 import io.anuke.mindustry.net.*;
@@ -20,6 +22,7 @@ public class PlayerListFragment extends Fragment{
     private boolean visible = false;
     private Table content = new Table().marginRight(13f).marginLeft(13f);
     private Interval timer = new Interval();
+    private Array<Player> players = new Array<>();
 
     @Override
     public void build(Group parent){
@@ -65,8 +68,11 @@ public class PlayerListFragment extends Fragment{
 
         float h = 74f;
 
-        playerGroup.all().sort((p1, p2) -> p1.getTeam().compareTo(p2.getTeam()));
-        playerGroup.all().each(user -> {
+        //sort a copy, as the group's array must keep its order
+        players.clear();
+        players.addAll(playerGroup.all());
+        players.sort((p1, p2) -> p1.getTeam().compareTo(p2.getTeam()));
+        players.each(user -> {
             NetConnection connection = user.con;
 
             if(connection == null && net.server() && !user.isLocal) return;
@@ -43,6 +43,8 @@ public class Block extends BlockStorage{
 
     /** whether this block has a tile entity that updates */
     public boolean update;
+    /** whether this block's entity sleeps while {@link #isIdle(Tile)} holds. It is woken up by items, liquids, power or configuration reaching it. */
+    public boolean idleSleep;
     /** whether this block has health and can be destroyed */
     public boolean destructible;
     /** whether unloaders work on this block*/
@@ -95,7 +97,7 @@ public class Block extends BlockStorage{
     public boolean drawLiquidLight = true;
     /** Whether the config is positional and needs to be shifted. */
     public boolean posConfig;
-    /** Whether to periodically sync this block across the network.*/
+    /** Whether to sync this block across the network whenever its state changes. See {@link TileEntity#syncVersion()}.*/
     public boolean sync;
     /** Whether this block uses conveyor-type placement mode.*/
     public boolean conveyorPlacement;
@@ -231,6 +233,11 @@ public class Block extends BlockStorage{
         return 1f / baseTime * entity.delta() * entity.efficiency();
     }
 
+    /** @return whether this block can't do anything until an item, liquid, power or configuration change wakes it up. Only used if {@link #idleSleep} is true. */
+    public boolean isIdle(Tile tile){
+        return false;
+    }
+
     /** @return whether this block should play its active sound.*/
     public boolean shouldActiveSound(Tile tile){
         return false;
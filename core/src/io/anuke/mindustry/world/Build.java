@@ -81,7 +81,7 @@ public class Build{
         }
 
         //check for enemy cores
-        for(Team enemy : state.teams.enemiesOf(team)){
+        for(Team enemy : state.teams.enemyArrayOf(team)){
             for(Tile core : state.teams.get(enemy).cores){
                 if(Mathf.dst(x * tilesize + type.offset(), y * tilesize + type.offset(), core.drawx(), core.drawy()) < state.rules.enemyCoreBuildRadius + type.size * tilesize / 2f){
                     return false;
@@ -133,25 +133,25 @@ public class Build{
     private static boolean contactsGround(int x, int y, Block block){
         if(block.isMultiblock()){
             for(Point2 point : Edges.getInsideEdges(block.size)){
-                Tile tile = world.tile(x + point.x, y + point.y);
-                if(tile != null && !tile.floor().isDeep()) return true;
+                if(ground(x + point.x, y + point.y)) return true;
             }
 
             for(Point2 point : Edges.getEdges(block.size)){
-                Tile tile = world.tile(x + point.x, y + point.y);
-                if(tile != null && !tile.floor().isDeep()) return true;
+                if(ground(x + point.x, y + point.y)) return true;
             }
         }else{
             for(Point2 point : Geometry.d4){
-                Tile tile = world.tile(x + point.x, y + point.y);
-                if(tile != null && !tile.floor().isDeep()) return true;
+                if(ground(x + point.x, y + point.y)) return true;
             }
-            Tile tile = world.tile(x, y);
-            return tile != null && !tile.floor().isDeep();
+            return ground(x, y);
         }
         return false;
     }
 
+    private static boolean ground(int x, int y){
+        return world.inBounds(x, y) && !world.deep(x, y);
+    }
+
     /** Returns whether the tile at this position is breakable by this team */
     public static boolean validBreak(Team team, int x, int y){
         Tile tile = world.ltile(x, y);
@@ -334,6 +334,8 @@ public class BuildBlock extends Block{
             this.accumulator = new float[block.requirements.length];
             this.totalAccumulator = new float[block.requirements.length];
             this.buildCost = block.buildCost * state.rules.buildCostMultiplier;
+            //solidity depends on the blocks being built
+            world.updateSolidity(tile);
         }
 
         public void setDeconstruct(Block previous){
@@ -347,6 +349,7 @@ public class BuildBlock extends Block{
             }else{
                 this.buildCost = 20f; //default no-requirement build cost is 20
             }
+            world.updateSolidity(tile);
         }
 
         @Override
@@ -386,6 +389,7 @@ public class BuildBlock extends Block{
 
             if(pid != -1) previous = content.block(pid);
             if(rid != -1) cblock = content.block(rid);
+            world.updateSolidity(tile);
 
             if(cblock != null){
                 buildCost = cblock.buildCost * state.rules.buildCostMultiplier;
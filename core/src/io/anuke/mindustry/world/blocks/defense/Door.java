@@ -41,6 +41,7 @@ public class Door extends Wall{
             entity.open = open;
             Door door = (Door)tile.block();
 
+            world.updateSolidity(tile);
             pathfinder.updateTile(tile);
             if(!entity.open){
                 Effects.effect(door.openfx, tile.drawx(), tile.drawy());
@@ -4,7 +4,7 @@ import io.anuke.arc.Core;
 import io.anuke.arc.audio.*;
 import io.anuke.arc.collection.Array;
 import io.anuke.arc.collection.EnumSet;
-import io.anuke.arc.func.Cons2;
+import io.anuke.arc.func.*;
 import io.anuke.arc.graphics.Blending;
 import io.anuke.arc.graphics.Color;
 import io.anuke.arc.graphics.g2d.*;
@@ -19,6 +19,7 @@ import io.anuke.mindustry.entities.type.Bullet;
 import io.anuke.mindustry.entities.bullet.BulletType;
 import io.anuke.mindustry.entities.traits.TargetTrait;
 import io.anuke.mindustry.entities.type.TileEntity;
+import io.anuke.mindustry.entities.type.Unit;
 import io.anuke.mindustry.gen.*;
 import io.anuke.mindustry.graphics.*;
 import io.anuke.mindustry.world.Block;
@@ -56,6 +57,9 @@ public abstract class Turret extends Block{
 
     protected Vector2 tr = new Vector2();
     protected Vector2 tr2 = new Vector2();
+    /** target filters, created once so that target searches do not allocate */
+    protected Boolf<Unit> airTargetPredicate = e -> !e.isDead() && e.isFlying();
+    protected Boolf<Unit> unitTargetPredicate = e -> !e.isDead() && (!e.isFlying() || targetAir) && (e.isFlying() || targetGround);
 
     public TextureRegion baseRegion, heatRegion;
 
@@ -193,9 +197,9 @@ public abstract class Turret extends Block{
         TurretEntity entity = tile.ent();
 
         if(targetAir && !targetGround){
-            entity.target = Units.closestEnemy(tile.getTeam(), tile.drawx(), tile.drawy(), range, e -> !e.isDead() && e.isFlying());
+            entity.target = Units.closestEnemy(tile.getTeam(), tile.drawx(), tile.drawy(), range, airTargetPredicate);
         }else{
-            entity.target = Units.closestTarget(tile.getTeam(), tile.drawx(), tile.drawy(), range, e -> !e.isDead() && (!e.isFlying() || targetAir) && (e.isFlying() || targetGround));
+            entity.target = Units.closestTarget(tile.getTeam(), tile.drawx(), tile.drawy(), range, unitTargetPredicate);
         }
     }
 
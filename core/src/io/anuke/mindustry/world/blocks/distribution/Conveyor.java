@@ -25,9 +25,6 @@ import static io.anuke.mindustry.Vars.*;
 public class Conveyor extends Block implements Autotiler{
     private static final float itemSpace = 0.4f;
     private static final float minmove = 1f / (Short.MAX_VALUE - 2);
-    private static ItemPos drawpos = new ItemPos();
-    private static ItemPos pos1 = new ItemPos();
-    private static ItemPos pos2 = new ItemPos();
     private final Vector2 tr1 = new Vector2();
     private final Vector2 tr2 = new Vector2();
     private TextureRegion[][] regions = new TextureRegion[7][4];
@@ -50,12 +47,6 @@ public class Conveyor extends Block implements Autotiler{
         unloadable = false;
     }
 
-    private static int compareItems(long a, long b){
-        pos1.set(a, ItemPos.packShorts);
-        pos2.set(b, ItemPos.packShorts);
-        return Float.compare(pos1.y, pos2.y);
-    }
-
     @Override
     public void setStats(){
         super.setStats();
@@ -98,6 +89,9 @@ public class Conveyor extends Block implements Autotiler{
         entity.blendbits = bits[0];
         entity.blendsclx = bits[1];
         entity.blendscly = bits[2];
+
+        //the neighbours have changed, so the line this conveyor is part of may have too
+        unfuse(entity);
     }
 
     @Override
@@ -126,23 +120,18 @@ public class Conveyor extends Block implements Autotiler{
 
         byte rotation = tile.rotation();
 
-        try{
-
-            for(int i = 0; i < entity.convey.size; i++){
-                ItemPos pos = drawpos.set(entity.convey.get(i), ItemPos.drawShorts);
+        ItemLane lane = entity.lane;
 
-                if(pos.item == null) continue;
+        for(int i = 0; i < lane.size; i++){
+            Item item = content.item(lane.id(i));
+            float y = lane.y(i);
 
-                tr1.trns(rotation * 90, tilesize, 0);
-                tr2.trns(rotation * 90, -tilesize / 2f, pos.x * tilesize / 2f);
+            tr1.trns(rotation * 90, tilesize, 0);
+            tr2.trns(rotation * 90, -tilesize / 2f, lane.x(i) * tilesize / 2f);
 
-                Draw.rect(pos.item.icon(Cicon.medium),
-                (tile.x * tilesize + tr1.x * pos.y + tr2.x),
-                (tile.y * tilesize + tr1.y * pos.y + tr2.y), itemSize, itemSize);
-            }
-
-        }catch(IndexOutOfBoundsException e){
-            Log.err(e);
+            Draw.rect(item.icon(Cicon.medium),
+            (tile.x * tilesize + tr1.x * y + tr2.x),
+            (tile.y * tilesize + tr1.y * y + tr2.y), itemSize, itemSize);
         }
     }
 
@@ -171,7 +160,7 @@ public class Conveyor extends Block implements Autotiler{
             if(Math.abs(tile.worldx() - unit.x) < 1f) centerx = 0f;
         }
 
-        if(entity.convey.size * itemSpace < 0.9f){
+        if(entity.lane.size * itemSpace < 0.9f){
             unit.applyImpulse((tx * speed + centerx) * entity.delta(), (ty * speed + centery) * entity.delta());
         }
     }
@@ -179,55 +168,121 @@ public class Conveyor extends Block implements Autotiler{
     @Override
     public void update(Tile tile){
         ConveyorEntity entity = tile.ent();
-        entity.minitem = 1f;
-        Tile next = tile.getNearby(tile.rotation());
-        if(next != null) next = next.link();
 
-        float nextMax = next != null && next.block() instanceof Conveyor && next.block().acceptItem(null, next, tile) ? 1f - Math.max(itemSpace - next.<ConveyorEntity>ent().minitem, 0) : 1f;
-        int minremove = Integer.MAX_VALUE;
+        if(entity.line == null){
+            fuse(tile);
+        }
+
+        Tile[] line = entity.line;
 
-        for(int i = entity.convey.size - 1; i >= 0; i--){
-            long value = entity.convey.get(i);
-            ItemPos pos = pos1.set(value, ItemPos.updateShorts);
+        if(line.length == 1){
+            moveItems(tile, entity, null);
 
-            //..this should never happen, but in case it does, remove it and stop here
-            if(pos.item == null){
-                entity.convey.removeValue(value);
-                break;
+            if(entity.items.total() == 0){
+                entity.sleep();
+            }else{
+                entity.noSleep();
             }
+        }else if(line[0] != tile){
+            //lines are updated by their front conveyor; make sure it is awake to move items handed to this one
+            if(line[0].entity != null) line[0].entity.noSleep();
+        }else{
+            updateLine(line);
+        }
+    }
 
-            float nextpos = (i == entity.convey.size - 1 ? 100f : pos2.set(entity.convey.get(i + 1), ItemPos.updateShorts).y) - itemSpace;
-            float maxmove = Math.min(nextpos - pos.y, speed * entity.delta());
+    /**
+     * Updates a fused line from the front to the back. The other conveyors of the line are kept asleep,
+     * and items are passed between them directly, without looking up their neighbours.
+     */
+    private void updateLine(Tile[] line){
+        ConveyorEntity front = line[0].ent();
+        boolean empty = true;
 
-            if(maxmove > minmove){
-                pos.y += maxmove;
-                if(Mathf.equal(pos.x, 0, 0.1f)){
-                    pos.x = 0f;
+        for(int i = 0; i < line.length; i++){
+            Tile tile = line[i];
+
+            //a conveyor was replaced without the line noticing; detect it again next update
+            if(tile.block() != this || ((ConveyorEntity)tile.entity).line != line){
+                unfuse(front);
+                return;
+            }
+
+            ConveyorEntity entity = tile.ent();
+
+            if(i > 0){
+                //sleeping conveyors don't update themselves, so their overdrive has to run out here
+                if(entity.isSleeping()){
+                    entity.timeScaleDuration -= Time.delta();
+                    if(entity.timeScaleDuration <= 0f || !canOverdrive){
+                        entity.timeScale = 1f;
+                    }
                 }
-                pos.x = Mathf.lerpDelta(pos.x, 0, 0.1f);
+
+                entity.sleep();
             }
 
-            pos.y = Mathf.clamp(pos.y, 0, nextMax);
+            moveItems(tile, entity, i == 0 ? null : line[i - 1]);
+            empty &= entity.items.total() == 0;
+        }
 
-            if(pos.y >= 0.9999f && offloadDir(tile, pos.item)){
-                if(next != null && next.block() instanceof Conveyor){
-                    ConveyorEntity othere = next.ent();
+        if(empty){
+            front.sleep();
+        }else{
+            front.noSleep();
+        }
+    }
 
-                    ItemPos ni = pos2.set(othere.convey.get(othere.lastInserted), ItemPos.updateShorts);
+    /**
+     * Moves the items of a single conveyor forward.
+     * @param fused the next conveyor in the same line, or null to look up and offload into whatever is ahead.
+     */
+    private void moveItems(Tile tile, ConveyorEntity entity, Tile fused){
+        entity.minitem = 1f;
+        Tile next;
+        float nextMax;
 
-                    if(next.rotation() == tile.rotation()){
-                        ni.x = pos.x;
-                    }
-                    othere.convey.set(othere.lastInserted, ni.pack());
+        if(fused != null){
+            next = fused;
+            ConveyorEntity othere = next.ent();
+            nextMax = acceptsFused(othere) ? 1f - Math.max(itemSpace - othere.minitem, 0) : 1f;
+        }else{
+            next = tile.getNearby(tile.rotation());
+            if(next != null) next = next.link();
+            nextMax = next != null && next.block() instanceof Conveyor && next.block().acceptItem(null, next, tile) ? 1f - Math.max(itemSpace - next.<ConveyorEntity>ent().minitem, 0) : 1f;
+        }
+
+        int minremove = Integer.MAX_VALUE;
+        ItemLane lane = entity.lane;
+
+        for(int i = lane.size - 1; i >= 0; i--){
+            Item item = content.item(lane.id(i));
+            float x = lane.x(i), y = lane.y(i);
+
+            float nextpos = (i == lane.size - 1 ? 100f : lane.y(i + 1)) - itemSpace;
+            float maxmove = Math.min(nextpos - y, speed * entity.delta());
+
+            if(maxmove > minmove){
+                y += maxmove;
+                if(Mathf.equal(x, 0, 0.1f)){
+                    x = 0f;
+                }
+                x = Mathf.lerpDelta(x, 0, 0.1f);
+            }
+
+            y = Mathf.clamp(y, 0, nextMax);
+
+            if(y >= 0.9999f && (fused != null ? passFused(next.ent(), item, x) : offloadDir(tile, item))){
+                if(fused == null && next != null && next.block() instanceof Conveyor && next.rotation() == tile.rotation()){
+                    ConveyorEntity othere = next.ent();
+                    othere.lane.setX(othere.lastInserted, x);
                 }
                 minremove = Math.min(i, minremove);
-                tile.entity.items.remove(pos.item, 1);
+                tile.entity.items.remove(item, 1);
             }else{
-                value = pos.pack();
-
-                if(pos.y < entity.minitem)
-                    entity.minitem = pos.y;
-                entity.convey.set(i, value);
+                if(y < entity.minitem)
+                    entity.minitem = y;
+                lane.set(i, x, y);
             }
         }
 
@@ -237,13 +292,71 @@ public class Conveyor extends Block implements Autotiler{
             entity.clogHeat = Mathf.lerpDelta(entity.clogHeat, 0f, 1f);
         }
 
-        if(entity.items.total() == 0){
-            entity.sleep();
-        }else{
-            entity.noSleep();
+        if(minremove != Integer.MAX_VALUE) lane.truncate(minremove);
+    }
+
+    /** Same as {@link #acceptItem(Item, Tile, Tile)} for an item coming from the conveyor behind in the same line. */
+    private boolean acceptsFused(ConveyorEntity entity){
+        return !entity.lane.isFull() && entity.minitem > itemSpace;
+    }
+
+    /** Hands an item to the back of the next conveyor in a line, keeping its offset from the center. */
+    private boolean passFused(ConveyorEntity next, Item item, float x){
+        if(!acceptsFused(next)) return false;
+
+        next.items.add(item, 1);
+        next.lastInserted = (byte)next.lane.insert(item.id, x, 0f);
+        next.minitem = 0f;
+        return true;
+    }
+
+    /** @return whether a conveyor passes its items straight into the next one, so that both can be updated as one line. */
+    private boolean fuses(Tile tile, Tile next){
+        return next != null && next.block() == this && next.entity != null && next.rotation() == tile.rotation() && next.getTeam() == tile.getTeam();
+    }
+
+    /** Detects the straight line of conveyors of this type that a conveyor is part of, and assigns it to all of them. */
+    private void fuse(Tile tile){
+        Tile front = tile;
+
+        while(true){
+            Tile next = front.getNearby(front.rotation());
+            if(!fuses(front, next)) break;
+            front = next;
+        }
+
+        Array<Tile> tiles = new Array<>();
+        for(Tile current = front; current != null; ){
+            tiles.add(current);
+            Tile back = current.getNearby((current.rotation() + 2) % 4);
+            current = back != null && fuses(back, current) ? back : null;
+        }
+
+        Tile[] line = new Tile[tiles.size];
+        for(int i = 0; i < line.length; i++){
+            line[i] = tiles.get(i);
+            ConveyorEntity entity = line[i].ent();
+
+            //members of an outdated line would otherwise be updated twice
+            if(entity.line != null) unfuse(entity);
+        }
+
+        for(Tile member : line){
+            member.<ConveyorEntity>ent().line = line;
         }
+    }
+
+    /** Splits the line of a conveyor back up. Its conveyors are woken up, and detect their lines again on their next update. */
+    private void unfuse(ConveyorEntity entity){
+        Tile[] line = entity.line;
+        if(line == null) return;
 
-        if(minremove != Integer.MAX_VALUE) entity.convey.truncate(minremove);
+        for(Tile member : line){
+            if(member.entity instanceof ConveyorEntity && ((ConveyorEntity)member.entity).line == line){
+                ((ConveyorEntity)member.entity).line = null;
+                member.entity.noSleep();
+            }
+        }
     }
 
     @Override
@@ -268,11 +381,9 @@ public class Conveyor extends Block implements Autotiler{
         int removed = 0;
 
         for(int j = 0; j < amount; j++){
-            for(int i = 0; i < entity.convey.size; i++){
-                long val = entity.convey.get(i);
-                ItemPos pos = pos1.set(val, ItemPos.drawShorts);
-                if(pos.item == item){
-                    entity.convey.removeValue(val);
+            for(int i = 0; i < entity.lane.size; i++){
+                if(entity.lane.id(i) == item.id){
+                    entity.lane.remove(i);
                     entity.items.remove(item, 1);
                     removed++;
                     break;
@@ -290,7 +401,7 @@ public class Conveyor extends Block implements Autotiler{
     @Override
     public int acceptStack(Item item, int amount, Tile tile, Unit source){
         ConveyorEntity entity = tile.ent();
-        return Math.min((int)(entity.minitem / itemSpace), amount);
+        return Math.min(Math.min((int)(entity.minitem / itemSpace), ItemLane.capacity - entity.lane.size), amount);
     }
 
     @Override
@@ -298,8 +409,7 @@ public class Conveyor extends Block implements Autotiler{
         ConveyorEntity entity = tile.ent();
 
         for(int i = amount - 1; i >= 0; i--){
-            long result = ItemPos.packItem(item, 0f, i * itemSpace);
-            entity.convey.insert(0, result);
+            entity.lane.addFirst(item.id, 0f, i * itemSpace);
             entity.items.add(item, 1);
         }
 
@@ -309,8 +419,9 @@ public class Conveyor extends Block implements Autotiler{
     @Override
     public boolean acceptItem(Item item, Tile tile, Tile source){
         int direction = source == null ? 0 : Math.abs(source.relativeTo(tile.x, tile.y) - tile.rotation());
-        float minitem = tile.<ConveyorEntity>ent().minitem;
-        return (((direction == 0) && minitem > itemSpace) ||
+        ConveyorEntity entity = tile.ent();
+        float minitem = entity.minitem;
+        return !entity.lane.isFull() && (((direction == 0) && minitem > itemSpace) ||
         ((direction % 2 == 1) && minitem > 0.52f)) && (source == null || !(source.block().rotate && (source.rotation() + 2) % 4 == tile.rotation()));
     }
 
@@ -326,26 +437,16 @@ public class Conveyor extends Block implements Autotiler{
 
         ConveyorEntity entity = tile.ent();
         entity.noSleep();
-        long result = ItemPos.packItem(item, y * 0.9f, pos);
 
         tile.entity.items.add(item, 1);
-
-        for(int i = 0; i < entity.convey.size; i++){
-            if(compareItems(result, entity.convey.get(i)) < 0){
-                entity.convey.insert(i, result);
-                entity.lastInserted = (byte)i;
-                return;
-            }
-        }
-
-        //this item must be greater than anything there...
-        entity.convey.add(result);
-        entity.lastInserted = (byte)(entity.convey.size - 1);
+        entity.lastInserted = (byte)entity.lane.insert(item.id, y * 0.9f, pos);
     }
 
     public static class ConveyorEntity extends TileEntity{
 
-        LongArray convey = new LongArray();
+        ItemLane lane = new ItemLane();
+        /** straight line of conveyors that this one is updated with, from front to back; null if not detected yet */
+        Tile[] line;
         byte lastInserted;
         float minitem = 1;
 
@@ -357,93 +458,38 @@ public class Conveyor extends Block implements Autotiler{
         @Override
         public void write(DataOutput stream) throws IOException{
             super.write(stream);
-            stream.writeInt(convey.size);
-
-            for(int i = 0; i < convey.size; i++){
-                stream.writeInt(ItemPos.toInt(convey.get(i)));
+            stream.writeInt(lane.size);
+            byte[] bytes = new byte[4];
+
+            for(int i = 0; i < lane.size; i++){
+                bytes[0] = (byte)lane.id(i);
+                bytes[1] = (byte)(lane.x(i) * 127);
+                bytes[2] = (byte)(lane.y(i) * 255 - 128);
+                stream.writeInt(Pack.intBytes(bytes));
             }
         }
 
         @Override
         public void read(DataInput stream, byte revision) throws IOException{
             super.read(stream, revision);
-            convey.clear();
+            lane.clear();
             int amount = stream.readInt();
-            convey.ensureCapacity(Math.min(amount, 10));
+            byte[] bytes = new byte[4];
 
             for(int i = 0; i < amount; i++){
-                convey.add(ItemPos.toLong(stream.readInt()));
-            }
-        }
-    }
-
-    //Container class. Do not instantiate.
-    static class ItemPos{
-        private static short[] writeShort = new short[4];
-        private static byte[] writeByte = new byte[4];
-
-        private static short[] packShorts = new short[4];
-        private static short[] drawShorts = new short[4];
-        private static short[] updateShorts = new short[4];
-
-        Item item;
-        float x, y;
-
-        private ItemPos(){
-        }
-
-        static long packItem(Item item, float x, float y){
-            short[] shorts = packShorts;
-            shorts[0] = (short)item.id;
-            shorts[1] = (short)(x * Short.MAX_VALUE);
-            shorts[2] = (short)((y - 1f) * Short.MAX_VALUE);
-            return Pack.longShorts(shorts);
-        }
-
-        static int toInt(long value){
-            short[] values = Pack.shorts(value, writeShort);
-
-            short itemid = values[0];
-            float x = values[1] / (float)Short.MAX_VALUE;
-            float y = ((float)values[2]) / Short.MAX_VALUE + 1f;
+                Pack.bytes(stream.readInt(), bytes);
+                Item item = content.item(bytes[0]);
 
-            byte[] bytes = writeByte;
-            bytes[0] = (byte)itemid;
-            bytes[1] = (byte)(x * 127);
-            bytes[2] = (byte)(y * 255 - 128);
+                //items that no longer exist can't be in the inventory either
+                if(item == null) continue;
 
-            return Pack.intBytes(bytes);
-        }
-
-        static long toLong(int value){
-            byte[] values = Pack.bytes(value, writeByte);
-
-            short itemid = content.item(values[0]).id;
-            float x = values[1] / 127f;
-            float y = ((int)values[2] + 128) / 255f;
-
-            short[] shorts = writeShort;
-            shorts[0] = itemid;
-            shorts[1] = (short)(x * Short.MAX_VALUE);
-            shorts[2] = (short)((y - 1f) * Short.MAX_VALUE);
-            return Pack.longShorts(shorts);
-        }
-
-        ItemPos set(long lvalue, short[] values){
-            Pack.shorts(lvalue, values);
-
-            if(values[0] >= content.items().size || values[0] < 0)
-                item = null;
-            else
-                item = content.items().get(values[0]);
-
-            x = values[1] / (float)Short.MAX_VALUE;
-            y = ((float)values[2]) / Short.MAX_VALUE + 1f;
-            return this;
-        }
-
-        long pack(){
-            return packItem(item, x, y);
+                if(lane.isFull()){
+                    //drop anything that doesn't fit, so that the inventory matches the lane
+                    items.remove(item, 1);
+                }else{
+                    lane.addLast(item.id, bytes[1] / 127f, ((int)bytes[2] + 128) / 255f);
+                }
+            }
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,129 @@
+package io.anuke.mindustry.world.blocks.distribution;
+
+/**
+ * A fixed capacity ring of the items on a conveyor, ordered by position from the back of the conveyor to the front.
+ * Items enter at the back and leave at the front without moving any other item.
+ * Positions are stored as plain floats: x is the offset from the center line, y the progress along the conveyor.
+ */
+class ItemLane{
+    /** maximum number of items; must be a power of two */
+    static final int capacity = 8;
+    private static final int mask = capacity - 1;
+
+    private final short[] ids = new short[capacity];
+    private final float[] xs = new float[capacity], ys = new float[capacity];
+    private int head;
+    int size;
+
+    short id(int index){
+        return ids[(head + index) & mask];
+    }
+
+    float x(int index){
+        return xs[(head + index) & mask];
+    }
+
+    float y(int index){
+        return ys[(head + index) & mask];
+    }
+
+    void set(int index, float x, float y){
+        int i = (head + index) & mask;
+        xs[i] = x;
+        ys[i] = y;
+    }
+
+    void setX(int index, float x){
+        xs[(head + index) & mask] = x;
+    }
+
+    boolean isFull(){
+        return size >= capacity;
+    }
+
+    /** Adds an item behind all others. The lane must not be full. */
+    void addFirst(short id, float x, float y){
+        checkSpace();
+        head = (head - 1) & mask;
+        size++;
+        write(0, id, x, y);
+    }
+
+    /** Adds an item in front of all others. The lane must not be full. */
+    void addLast(short id, float x, float y){
+        checkSpace();
+        size++;
+        write(size - 1, id, x, y);
+    }
+
+    /**
+     * Inserts an item behind the first item that is further ahead, moving whichever side of the lane is shorter.
+     * The lane must not be full.
+     * @return the index of the inserted item.
+     */
+    int insert(short id, float x, float y){
+        checkSpace();
+        int index = 0;
+        while(index < size && y(index) <= y){
+            index++;
+        }
+
+        if(index < size - index){
+            head = (head - 1) & mask;
+            for(int i = 0; i < index; i++){
+                copy(i + 1, i);
+            }
+        }else{
+            for(int i = size; i > index; i--){
+                copy(i - 1, i);
+            }
+        }
+
+        size++;
+        write(index, id, x, y);
+        return index;
+    }
+
+    /** Removes the item at an index, moving whichever side of the lane is shorter. */
+    void remove(int index){
+        if(index < size - 1 - index){
+            for(int i = index; i > 0; i--){
+                copy(i - 1, i);
+            }
+            head = (head + 1) & mask;
+        }else{
+            for(int i = index; i < size - 1; i++){
+                copy(i + 1, i);
+            }
+        }
+        size--;
+    }
+
+    /** Removes every item from an index to the front. */
+    void truncate(int newSize){
+        size = Math.min(size, newSize);
+    }
+
+    void clear(){
+        head = size = 0;
+    }
+
+    /** Items are never dropped: adding to a full lane is a bug in the caller. */
+    private void checkSpace(){
+        if(isFull()) throw new IllegalStateException("Item lane is full");
+    }
+
+    private void write(int index, short id, float x, float y){
+        int i = (head + index) & mask;
+        ids[i] = id;
+        xs[i] = x;
+        ys[i] = y;
+    }
+
+    private void copy(int from, int to){
+        int f = (head + from) & mask, t = (head + to) & mask;
+        ids[t] = ids[f];
+        xs[t] = xs[f];
+        ys[t] = ys[f];
+    }
+}
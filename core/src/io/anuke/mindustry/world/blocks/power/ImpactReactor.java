@@ -164,6 +164,17 @@ public class ImpactReactor extends PowerGenerator{
     public static class FusionReactorEntity extends GeneratorEntity{
         public float warmup;
 
+        private float lastWarmup;
+
+        @Override
+        public int syncVersion(){
+            if(warmup != lastWarmup){
+                lastWarmup = warmup;
+                markDirty();
+            }
+            return super.syncVersion();
+        }
+
         @Override
         public void write(DataOutput stream) throws IOException{
             super.write(stream);
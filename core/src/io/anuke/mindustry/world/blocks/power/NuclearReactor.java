@@ -184,6 +184,17 @@ public class NuclearReactor extends PowerGenerator{
         public float heat;
         public float flash;
 
+        private float lastHeat;
+
+        @Override
+        public int syncVersion(){
+            if(heat != lastHeat){
+                lastHeat = heat;
+                markDirty();
+            }
+            return super.syncVersion();
+        }
+
         @Override
         public void write(DataOutput stream) throws IOException{
             super.write(stream);
@@ -58,6 +58,17 @@ public class PowerGenerator extends PowerDistributor{
         /** The efficiency of the producer. An efficiency of 1.0 means 100% */
         public float productionEfficiency = 0.0f;
 
+        private float lastEfficiency;
+
+        @Override
+        public int syncVersion(){
+            if(productionEfficiency != lastEfficiency){
+                lastEfficiency = productionEfficiency;
+                markDirty();
+            }
+            return super.syncVersion();
+        }
+
         @Override
         public void write(DataOutput stream) throws IOException{
             super.write(stream);
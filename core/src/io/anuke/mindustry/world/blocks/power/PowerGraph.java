@@ -1,27 +1,48 @@
 package io.anuke.mindustry.world.blocks.power;
 
-import io.anuke.arc.*;
 import io.anuke.arc.collection.*;
 import io.anuke.arc.math.*;
 import io.anuke.arc.util.*;
+import io.anuke.arc.util.ArcAnnotate.*;
+import io.anuke.mindustry.entities.*;
 import io.anuke.mindustry.world.*;
 import io.anuke.mindustry.world.consumers.*;
 
+import static io.anuke.mindustry.Vars.world;
+
 public class PowerGraph{
-    private final static Queue<Tile> queue = new Queue<>();
-    private final static Array<Tile> outArray1 = new Array<>();
-    private final static Array<Tile> outArray2 = new Array<>();
-    private final static IntSet closedSet = new IntSet();
+    /** graphs that have had members since they were last solved; see {@link #updateAll()} */
+    private final static Array<PowerGraph> graphs = new Array<>(false, 16);
+    private final static Tile[] emptyTiles = {};
+    /** buffers for reflowing and splitting graphs; one set per thread, so that no state is shared between threads */
+    private final static ThreadLocal<Scratch> scratch = new ThreadLocal<Scratch>(){
+        @Override
+        protected Scratch initialValue(){
+            return new Scratch();
+        }
+    };
+    /** number of graphs solved by one task when solving in parallel */
+    private final static int parallelBatchSize = 4;
 
     private final ObjectSet<Tile> producers = new ObjectSet<>();
     private final ObjectSet<Tile> consumers = new ObjectSet<>();
     private final ObjectSet<Tile> batteries = new ObjectSet<>();
     private final ObjectSet<Tile> all = new ObjectSet<>();
 
+    //dense copies of the member sets, rebuilt only when membership changes
+    private boolean changed;
+    private Tile[] producerTiles = emptyTiles, consumerTiles = emptyTiles, batteryTiles = emptyTiles;
+    /** power consumer of each consumer tile, or null if it has none */
+    private ConsumePower[] consumerPower = {};
+    /** power requested by each consumer in the last call to {@link #updateRequests()}, or -1 if its other consumers were invalid */
+    private float[] consumerRequest = {};
+    /** capacity of each battery tile; 0 if it has no power consumer */
+    private float[] batteryCapacity = {};
+    private int registeredIndex = -1;
+
     private final WindowedMean powerBalance = new WindowedMean(60);
     private float lastPowerProduced, lastPowerNeeded, lastUsageFraction;
 
-    private long lastFrameUpdated = -1;
     private final int graphID;
     private static int lastGraphID;
 
@@ -61,8 +82,9 @@ public class PowerGraph{
     }
 
     public float getPowerProduced(){
+        refresh();
         float powerProduced = 0f;
-        for(Tile producer : producers){
+        for(Tile producer : producerTiles){
             if(producer.entity == null) continue;
             powerProduced += producer.block().getPowerProduction(producer) * producer.entity.delta();
         }
@@ -70,47 +92,62 @@ public class PowerGraph{
     }
 
     public float getPowerNeeded(){
+        refresh();
         float powerNeeded = 0f;
-        for(Tile consumer : consumers){
-            Consumers consumes = consumer.block().consumes;
-            if(consumes.hasPower()){
-                ConsumePower consumePower = consumes.getPower();
-                if(otherConsumersAreValid(consumer, consumePower)){
-                    powerNeeded += consumePower.requestedPower(consumer.entity) * consumer.entity.delta();
-                }
+        for(int i = 0; i < consumerTiles.length; i++){
+            Tile consumer = consumerTiles[i];
+            ConsumePower consumePower = consumerPower[i];
+            if(consumePower != null && otherConsumersAreValid(consumer, consumePower)){
+                powerNeeded += consumePower.requestedPower(consumer.entity) * consumer.entity.delta();
+            }
+        }
+        return powerNeeded;
+    }
+
+    /**
+     * Records the request of every consumer, which {@link #distributePower(float, float)} uses afterwards.
+     * @return the total power needed, same as {@link #getPowerNeeded()}
+     */
+    private float updateRequests(){
+        refresh();
+        float powerNeeded = 0f;
+        for(int i = 0; i < consumerTiles.length; i++){
+            Tile consumer = consumerTiles[i];
+            ConsumePower consumePower = consumerPower[i];
+            if(consumePower != null && otherConsumersAreValid(consumer, consumePower)){
+                float request = consumePower.requestedPower(consumer.entity) * consumer.entity.delta();
+                consumerRequest[i] = request;
+                powerNeeded += request;
+            }else{
+                consumerRequest[i] = -1f;
             }
         }
         return powerNeeded;
     }
 
     public float getBatteryStored(){
+        refresh();
         float totalAccumulator = 0f;
-        for(Tile battery : batteries){
-            Consumers consumes = battery.block().consumes;
-            if(consumes.hasPower()){
-                totalAccumulator += battery.entity.power.status * consumes.getPower().capacity;
-            }
+        for(int i = 0; i < batteryTiles.length; i++){
+            totalAccumulator += batteryTiles[i].entity.power.status * batteryCapacity[i];
         }
         return totalAccumulator;
     }
 
     public float getBatteryCapacity(){
+        refresh();
         float totalCapacity = 0f;
-        for(Tile battery : batteries){
-            if(battery.block().consumes.hasPower()){
-                ConsumePower power = battery.block().consumes.getPower();
-                totalCapacity += (1f - battery.entity.power.status) * power.capacity;
-            }
+        for(int i = 0; i < batteryTiles.length; i++){
+            totalCapacity += (1f - batteryTiles[i].entity.power.status) * batteryCapacity[i];
         }
         return totalCapacity;
     }
 
     public float getTotalBatteryCapacity(){
+        refresh();
         float totalCapacity = 0f;
-        for(Tile battery : batteries){
-            if(battery.block().consumes.hasPower()){
-                totalCapacity += battery.block().consumes.getPower().capacity;
-            }
+        for(float capacity : batteryCapacity){
+            totalCapacity += capacity;
         }
         return totalCapacity;
     }
@@ -121,11 +158,8 @@ public class PowerGraph{
 
         float used = Math.min(stored, needed);
         float consumedPowerPercentage = Math.min(1.0f, needed / stored);
-        for(Tile battery : batteries){
-            Consumers consumes = battery.block().consumes;
-            if(consumes.hasPower()){
-                battery.entity.power.status *= (1f-consumedPowerPercentage);
-            }
+        for(Tile battery : batteryTiles){
+            battery.entity.power.status *= (1f-consumedPowerPercentage);
         }
         return used;
     }
@@ -136,25 +170,24 @@ public class PowerGraph{
         float chargedPercent = Math.min(excess/capacity, 1f);
         if(Mathf.equal(capacity, 0f)) return 0f;
 
-        for(Tile battery : batteries){
-            Consumers consumes = battery.block().consumes;
-            if(consumes.hasPower()){
-                ConsumePower consumePower = consumes.getPower();
-                if(consumePower.capacity > 0f){
-                    battery.entity.power.status += (1f-battery.entity.power.status) * chargedPercent;
-                }
+        for(int i = 0; i < batteryTiles.length; i++){
+            if(batteryCapacity[i] > 0f){
+                batteryTiles[i].entity.power.status += (1f-batteryTiles[i].entity.power.status) * chargedPercent;
             }
         }
         return Math.min(excess, capacity);
     }
 
-    public void distributePower(float needed, float produced){
+    /** Must be called after {@link #updateRequests()} in the same update, as it uses the consumer requests recorded there. */
+    private void distributePower(float needed, float produced){
+        refresh();
         //distribute even if not needed. this is because some might be requiring power but not using it; it updates consumers
         float coverage = Mathf.zero(needed) && Mathf.zero(produced) ? 0f : Mathf.zero(needed) ? 1f : Math.min(1, produced / needed);
-        for(Tile consumer : consumers){
-            Consumers consumes = consumer.block().consumes;
-            if(consumes.hasPower()){
-                ConsumePower consumePower = consumes.getPower();
+        for(int i = 0; i < consumerTiles.length; i++){
+            Tile consumer = consumerTiles[i];
+            ConsumePower consumePower = consumerPower[i];
+            if(consumePower != null){
+                float lastStatus = consumer.entity.power.status;
                 if(consumePower.buffered){
                     if(!Mathf.zero(consumePower.capacity)){
                         // Add an equal percentage of power to all buffers, based on the global power coverage in this graph
@@ -163,7 +196,7 @@ public class PowerGraph{
                     }
                 }else{
                     //valid consumers get power as usual
-                    if(otherConsumersAreValid(consumer, consumePower)){
+                    if(consumerRequest[i] >= 0f){
                         consumer.entity.power.status = coverage;
                     }else{ //invalid consumers get an estimate, if they were to activate
                         consumer.entity.power.status = Math.min(1, produced / (needed + consumePower.usage * consumer.entity.delta()));
@@ -173,14 +206,58 @@ public class PowerGraph{
                         }
                     }
                 }
+
+                //power was restored, so a sleeping consumer may be able to run again
+                if(Mathf.zero(lastStatus) && consumer.entity.power.status > 0f){
+                    ParallelUpdater.defer(consumer.entity::noSleep);
+                }
+            }
+        }
+    }
+
+    /** Forgets every graph, so that graphs of a game that has ended don't keep its tiles alive. Called when the game is reset. */
+    public static void clearAll(){
+        for(int i = 0; i < graphs.size; i++){
+            graphs.get(i).registeredIndex = -1;
+        }
+        graphs.clear();
+    }
+
+    /** Solves every graph on this thread. See {@link #updateAll(ParallelUpdater)}. */
+    public static void updateAll(){
+        updateAll(null);
+    }
+
+    /**
+     * Solves every graph once per frame. Called by {@link io.anuke.mindustry.core.Logic} before tile entities are updated,
+     * so that they read this frame's power status. Graphs that lost all their members, or that belong to a previous world, are dropped.
+     * Graphs share no tiles, so each one is solved as a separate job when an updater is given.
+     * @param parallel the updater to solve graphs on, or null to solve them on this thread.
+     */
+    public static void updateAll(@Nullable ParallelUpdater parallel){
+        for(int i = 0; i < graphs.size; i++){
+            PowerGraph graph = graphs.get(i);
+            if(graph.all.isEmpty() || graph.isStale()){
+                graphs.removeIndex(i);
+                if(i < graphs.size){
+                    graphs.get(i).registeredIndex = i;
+                }
+                graph.registeredIndex = -1;
+                i--;
+            }
+        }
+
+        if(parallel == null){
+            for(int i = 0; i < graphs.size; i++){
+                graphs.get(i).update();
             }
+        }else{
+            parallel.compute(graphs, parallelBatchSize, PowerGraph::update);
         }
     }
 
     public void update(){
-        if(Core.graphics.getFrameId() == lastFrameUpdated){
-            return;
-        }else if(!consumers.isEmpty() && consumers.first().isEnemyCheat()){
+        if(!consumers.isEmpty() && consumers.first().isEnemyCheat()){
             //when cheating, just set status to 1
             for(Tile tile : consumers){
                 tile.entity.power.status = 1f;
@@ -190,9 +267,7 @@ public class PowerGraph{
             return;
         }
 
-        lastFrameUpdated = Core.graphics.getFrameId();
-
-        float powerNeeded = getPowerNeeded();
+        float powerNeeded = updateRequests();
         float powerProduced = getPowerProduced();
         float rawProduced = powerProduced;
 
@@ -224,15 +299,39 @@ public class PowerGraph{
     }
 
     public void add(PowerGraph graph){
+        if(graph == this) return;
+
+        //always move the members of the smaller graph
+        if(graph.all.size > all.size){
+            graph.add(this);
+            return;
+        }
+
         for(Tile tile : graph.all){
-            add(tile);
+            addSingle(tile);
         }
+        graph.clear();
     }
 
+    /** Adds a tile to this graph, removing it from its previous one. */
     public void add(Tile tile){
+        if(tile.entity == null || tile.entity.power == null) return;
+        if(tile.entity.power.graph != this && tile.entity.power.graph != null){
+            tile.entity.power.graph.removeSingle(tile);
+        }
+        addSingle(tile);
+    }
+
+    private void addSingle(Tile tile){
         if(tile.entity == null || tile.entity.power == null) return;
         tile.entity.power.graph = this;
         all.add(tile);
+        changed = true;
+
+        if(registeredIndex == -1){
+            registeredIndex = graphs.size;
+            graphs.add(this);
+        }
 
         if(tile.block().outputsPower && tile.block().consumesPower && !tile.block().consumes.getPower().buffered){
             producers.add(tile);
@@ -247,13 +346,17 @@ public class PowerGraph{
     }
 
     public void reflow(Tile tile){
+        Scratch scratch = PowerGraph.scratch.get();
+        Queue<Tile> queue = scratch.queue;
+        IntSet closedSet = scratch.closedSet;
+
         queue.clear();
         queue.addLast(tile);
         closedSet.clear();
         while(queue.size > 0){
             Tile child = queue.removeFirst();
             add(child);
-            for(Tile next : child.block().getPowerConnections(child, outArray2)){
+            for(Tile next : child.block().getPowerConnections(child, scratch.outArray2)){
                 if(!closedSet.contains(next.pos())){
                     queue.addLast(next);
                     closedSet.add(next.pos());
@@ -267,46 +370,190 @@ public class PowerGraph{
         producers.remove(tile);
         consumers.remove(tile);
         batteries.remove(tile);
+        changed = true;
+    }
+
+    private void clear(){
+        all.clear();
+        producers.clear();
+        consumers.clear();
+        batteries.clear();
+        changed = true;
+    }
+
+    /** @return whether the members of this graph belong to a world that is no longer loaded. */
+    private boolean isStale(){
+        Tile tile = all.first();
+        return world.tile(tile.x, tile.y) != tile;
+    }
+
+    /** Rebuilds the dense member arrays if membership has changed. */
+    private void refresh(){
+        if(!changed) return;
+        changed = false;
+
+        producerTiles = toArray(producers);
+        consumerTiles = toArray(consumers);
+        batteryTiles = toArray(batteries);
+
+        consumerPower = new ConsumePower[consumerTiles.length];
+        consumerRequest = new float[consumerTiles.length];
+        for(int i = 0; i < consumerTiles.length; i++){
+            Consumers consumes = consumerTiles[i].block().consumes;
+            consumerPower[i] = consumes.hasPower() ? consumes.getPower() : null;
+            consumerRequest[i] = -1f;
+        }
+
+        batteryCapacity = new float[batteryTiles.length];
+        for(int i = 0; i < batteryTiles.length; i++){
+            Consumers consumes = batteryTiles[i].block().consumes;
+            batteryCapacity[i] = consumes.hasPower() ? consumes.getPower().capacity : 0f;
+        }
+    }
+
+    private static Tile[] toArray(ObjectSet<Tile> set){
+        if(set.isEmpty()) return emptyTiles;
+
+        Tile[] out = new Tile[set.size];
+        int i = 0;
+        for(Tile tile : set){
+            out[i++] = tile;
+        }
+        return out;
     }
 
     public void remove(Tile tile){
         removeSingle(tile);
-        //begin by clearing the closed set
-        closedSet.clear();
+        split(tile, tile.block().getPowerConnections(tile, scratch.get().outArray1));
+    }
+
+    /** Call after the link between two tiles of this graph has been removed, to split off any part that is no longer connected. */
+    public void removeLink(Tile tile, Tile other){
+        Array<Tile> starts = scratch.get().outArray1;
+        starts.clear();
+        starts.add(tile, other);
+        split(null, starts);
+    }
+
+    /**
+     * Moves every part of this graph that is no longer connected to the rest into a new graph.
+     * A breadth-first search is run from each start in lockstep; searches that reach each other are joined with union-find.
+     * Searching stops once at most one group of joined searches is still running. Every finished group is a complete part,
+     * so only the split-off parts are ever fully explored, and the largest part stays in this graph.
+     * @param removed a tile that connections may no longer pass through, or null.
+     */
+    private void split(Tile removed, Array<Tile> starts){
+        Scratch scratch = PowerGraph.scratch.get();
+        IntIntMap labels = scratch.labels;
+        Array<Tile> visited = scratch.visited;
+        Array<Queue<Tile>> queues = scratch.queues;
+
+        labels.clear();
+        visited.clear();
+        int branches = 0;
+
+        for(Tile start : starts){
+            if(start == removed || start.entity == null || start.entity.power == null || start.entity.power.graph != this || labels.containsKey(start.pos())) continue;
+
+            if(queues.size <= branches){
+                queues.add(new Queue<>());
+            }
+            queues.get(branches).clear();
+            queues.get(branches).addLast(start);
+            labels.put(start.pos(), branches);
+            visited.add(start);
+            branches++;
+        }
+
+        //a single branch can't be split from anything
+        if(branches <= 1) return;
+
+        int[] parents = new int[branches];
+        boolean[] running = new boolean[branches];
+        for(int i = 0; i < branches; i++){
+            parents[i] = i;
+        }
+
+        int groups, runningGroups, runningRoot;
+
+        while(true){
+            groups = runningGroups = 0;
+            runningRoot = -1;
+
+            for(int i = 0; i < branches; i++){
+                running[i] = false;
+            }
+
+            for(int i = 0; i < branches; i++){
+                int root = find(parents, i);
+                if(root == i) groups++;
+                if(queues.get(i).size > 0 && !running[root]){
+                    running[root] = true;
+                    runningRoot = root;
+                    runningGroups++;
+                }
+            }
+
+            if(groups <= 1 || runningGroups <= 1) break;
+
+            for(int i = 0; i < branches; i++){
+                Queue<Tile> queue = queues.get(i);
+                if(queue.size == 0) continue;
 
-        //go through all the connections of this tile
-        for(Tile other : tile.block().getPowerConnections(tile, outArray1)){
-            //a graph has already been assigned to this tile from a previous call, skip it
-            if(other.entity.power.graph != this) continue;
-
-            //create graph for this branch
-            PowerGraph graph = new PowerGraph();
-            graph.add(other);
-            //add to queue for BFS
-            queue.clear();
-            queue.addLast(other);
-            while(queue.size > 0){
-                //get child from queue
                 Tile child = queue.removeFirst();
-                //remove it from this graph
-                removeSingle(child);
-                //add it to the new branch graph
-                graph.add(child);
-                //go through connections
-                for(Tile next : child.block().getPowerConnections(child, outArray2)){
-                    //make sure it hasn't looped back, and that the new graph being assigned hasn't already been assigned
-                    //also skip closed tiles
-                    if(next != tile && next.entity.power.graph != graph && !closedSet.contains(next.pos())){
+                for(Tile next : child.block().getPowerConnections(child, scratch.outArray2)){
+                    if(next == removed || next.entity.power.graph != this) continue;
+
+                    int label = labels.get(next.pos(), -1);
+                    if(label == -1){
+                        labels.put(next.pos(), i);
+                        visited.add(next);
                         queue.addLast(next);
-                        closedSet.add(next.pos());
+                    }else{
+                        //reached another search, so both are part of the same graph
+                        int a = find(parents, i), b = find(parents, label);
+                        if(a != b) parents[b] = a;
                     }
                 }
             }
-            //update the graph once so direct consumers without any connected producer lose their power
-            graph.update();
+        }
+
+        //everything is still connected
+        if(groups <= 1) return;
+
+        int keep = runningRoot;
+
+        //every search finished, so keep the largest part in this graph
+        if(runningGroups == 0){
+            int[] sizes = new int[branches];
+            for(Tile tile : visited){
+                sizes[find(parents, labels.get(tile.pos(), 0))]++;
+            }
+
+            for(int i = 0; i < branches; i++){
+                if(keep == -1 || sizes[i] > sizes[keep]) keep = i;
+            }
+        }
+
+        //new graphs register themselves, and are solved with all others in the next updateAll
+        PowerGraph[] parts = new PowerGraph[branches];
+        for(Tile tile : visited){
+            int root = find(parents, labels.get(tile.pos(), 0));
+            if(root == keep) continue;
+
+            if(parts[root] == null) parts[root] = new PowerGraph();
+            parts[root].add(tile);
         }
     }
 
+    private static int find(int[] parents, int branch){
+        while(parents[branch] != branch){
+            parents[branch] = parents[parents[branch]];
+            branch = parents[branch];
+        }
+        return branch;
+    }
+
     private boolean otherConsumersAreValid(Tile tile, Consume consumePower){
         for(Consume cons : tile.block().consumes.all()){
             if(cons != consumePower && !cons.isOptional() && !cons.valid(tile.ent())){
@@ -316,6 +563,16 @@ public class PowerGraph{
         return true;
     }
 
+    private static class Scratch{
+        final Queue<Tile> queue = new Queue<>();
+        final Array<Tile> outArray1 = new Array<>();
+        final Array<Tile> outArray2 = new Array<>();
+        final IntSet closedSet = new IntSet();
+        final IntIntMap labels = new IntIntMap();
+        final Array<Tile> visited = new Array<>();
+        final Array<Queue<Tile>> queues = new Array<>();
+    }
+
     @Override
     public String toString(){
         return "PowerGraph{" +
@@ -323,7 +580,6 @@ public class PowerGraph{
         ", consumers=" + consumers +
         ", batteries=" + batteries +
         ", all=" + all +
-        ", lastFrameUpdated=" + lastFrameUpdated +
         ", graphID=" + graphID +
         '}';
     }
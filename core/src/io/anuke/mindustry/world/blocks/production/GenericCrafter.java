@@ -36,6 +36,7 @@ public class GenericCrafter extends Block{
         health = 60;
         idleSound = Sounds.machine;
         sync = true;
+        idleSleep = true;
         idleSoundVolume = 0.03f;
         entityType = GenericCrafterEntity::new;
     }
@@ -134,7 +135,13 @@ public class GenericCrafter extends Block{
         return outputItem != null;
     }
 
-
+    @Override
+    public boolean isIdle(Tile tile){
+        //missing inputs, and no output left to dump
+        return !tile.entity.cons.valid() &&
+            (outputItem == null || !tile.entity.items.has(outputItem.item)) &&
+            (outputLiquid == null || tile.entity.liquids.get(outputLiquid.liquid) <= 0.001f);
+    }
 
     @Override
     public boolean shouldConsume(Tile tile){
@@ -162,6 +169,18 @@ public class GenericCrafter extends Block{
         public float totalProgress;
         public float warmup;
 
+        private float lastProgress, lastWarmup;
+
+        @Override
+        public int syncVersion(){
+            if(progress != lastProgress || warmup != lastWarmup){
+                lastProgress = progress;
+                lastWarmup = warmup;
+                markDirty();
+            }
+            return super.syncVersion();
+        }
+
         @Override
         public void write(DataOutput stream) throws IOException{
             super.write(stream);
@@ -4,6 +4,14 @@ import java.io.*;
 
 /** A class that represents compartmentalized tile entity state. */
 public abstract class BlockModule{
+    /** Incremented whenever synced state of this module changes. */
+    protected int syncVersion;
+
+    /** @return a counter that changes whenever the state written by this module changes. */
+    public int syncVersion(){
+        return syncVersion;
+    }
+
     public abstract void write(DataOutput stream) throws IOException;
 
     public abstract void read(DataInput stream) throws IOException;
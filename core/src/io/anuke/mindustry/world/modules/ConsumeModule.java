@@ -6,7 +6,7 @@ import io.anuke.mindustry.world.consumers.Consume;
 import java.io.*;
 
 public class ConsumeModule extends BlockModule{
-    private boolean valid, optionalValid;
+    private boolean valid, optionalValid, lastValid;
     private final TileEntity entity;
 
     public ConsumeModule(TileEntity entity){
@@ -58,6 +58,15 @@ public class ConsumeModule extends BlockModule{
         return valid() && optionalValid;
     }
 
+    @Override
+    public int syncVersion(){
+        if(valid != lastValid){
+            lastValid = valid;
+            syncVersion++;
+        }
+        return syncVersion;
+    }
+
     @Override
     public void write(DataOutput stream) throws IOException{
         stream.writeBoolean(valid);
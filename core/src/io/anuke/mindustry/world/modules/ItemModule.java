@@ -71,6 +71,7 @@ public class ItemModule extends BlockModule{
             if(items[i] > 0){
                 items[i]--;
                 total--;
+                syncVersion++;
                 return content.item(i);
             }
         }
@@ -84,11 +85,13 @@ public class ItemModule extends BlockModule{
     public void set(Item item, int amount){
         total += (amount - items[item.id]);
         items[item.id] = amount;
+        syncVersion++;
     }
 
     public void add(Item item, int amount){
         items[item.id] += amount;
         total += amount;
+        syncVersion++;
     }
 
     public void addAll(ItemModule items){
@@ -96,6 +99,7 @@ public class ItemModule extends BlockModule{
             this.items[i] += items.items[i];
             total += items.items[i];
         }
+        syncVersion++;
     }
 
     public void remove(Item item, int amount){
@@ -103,6 +107,7 @@ public class ItemModule extends BlockModule{
 
         items[item.id] -= amount;
         total -= amount;
+        syncVersion++;
     }
 
     public void remove(ItemStack stack){
@@ -112,6 +117,7 @@ public class ItemModule extends BlockModule{
     public void clear(){
         Arrays.fill(items, 0);
         total = 0;
+        syncVersion++;
     }
 
     @Override
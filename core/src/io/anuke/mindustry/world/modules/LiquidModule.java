@@ -39,6 +39,7 @@ public class LiquidModule extends BlockModule{
         liquids[liquid.id] = amount;
         total = amount;
         current = liquid;
+        syncVersion++;
     }
 
     public float currentAmount(){
@@ -52,12 +53,14 @@ public class LiquidModule extends BlockModule{
     public void clear(){
         total = 0;
         Arrays.fill(liquids, 0);
+        syncVersion++;
     }
 
     public void add(Liquid liquid, float amount){
         liquids[liquid.id] += amount;
         total += amount;
         current = liquid;
+        syncVersion++;
     }
 
     public void remove(Liquid liquid, float amount){
@@ -17,6 +17,20 @@ public class PowerModule extends BlockModule{
     public PowerGraph graph = new PowerGraph();
     public IntArray links = new IntArray();
 
+    private float lastStatus;
+    private int lastLinks;
+
+    @Override
+    public int syncVersion(){
+        //status and links are modified directly, so changes are detected when the version is requested
+        if(status != lastStatus || links.size != lastLinks){
+            lastStatus = status;
+            lastLinks = links.size;
+            syncVersion++;
+        }
+        return syncVersion;
+    }
+
     @Override
     public void write(DataOutput stream) throws IOException{
         stream.writeShort(links.size);
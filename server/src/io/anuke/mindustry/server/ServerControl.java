@@ -519,6 +519,16 @@ public class ServerControl implements ApplicationListener{
             info("Block syncing is now &lc{0}.", on ? "on" : "off");
         });
 
+        handler.register("parallel", "[on/off]", "Enable/disable parallel unit and power graph updates. Experimental.", arg -> {
+            if(arg.length == 0){
+                info("Parallel updates are currently &lc{0}.", logic.isParallelUpdates() ? "enabled" : "disabled");
+                return;
+            }
+            boolean on = arg[0].equalsIgnoreCase("on");
+            logic.setParallelUpdates(on);
+            info("Parallel updates are now &lc{0}.", on ? "on" : "off");
+        });
+
         handler.register("crashreport", "<on/off>", "Disables or enables automatic crash reporting", arg -> {
             boolean value = arg[0].equalsIgnoreCase("on");
             Core.settings.put("crashreport", value);
@@ -9,8 +9,10 @@ import io.anuke.mindustry.Vars;
 import io.anuke.mindustry.content.*;
 import io.anuke.mindustry.core.GameState.State;
 import io.anuke.mindustry.core.*;
+import io.anuke.mindustry.entities.*;
 import io.anuke.mindustry.entities.traits.BuilderTrait.BuildRequest;
 import io.anuke.mindustry.entities.type.BaseUnit;
+import io.anuke.mindustry.entities.type.TileEntity;
 import io.anuke.mindustry.entities.type.base.*;
 import io.anuke.mindustry.game.Team;
 import io.anuke.mindustry.io.SaveIO;
@@ -123,6 +125,99 @@ public class ApplicationTests{
         world.endMapLoad();
     }
 
+    @Test
+    void unitQueries(){
+        createMap();
+
+        BaseUnit ally = UnitTypes.dagger.create(Team.sharded), enemy = UnitTypes.dagger.create(Team.crux);
+        ally.set(2 * tilesize, 2 * tilesize);
+        enemy.set(5 * tilesize, 5 * tilesize);
+        ally.add();
+        enemy.add();
+
+        for(EntityGroup<?> group : unitGroups){
+            group.updateEvents();
+            collisions.updatePhysics(group);
+        }
+
+        assertEquals(enemy, Units.closestEnemy(Team.sharded, ally.x, ally.y, 100f, u -> true));
+        assertEquals(ally, Units.closest(Team.sharded, enemy.x, enemy.y, 100f, u -> true));
+        assertNull(Units.closestEnemy(Team.sharded, ally.x, ally.y, tilesize, u -> true));
+
+        //predicates may run queries of their own
+        assertEquals(enemy, Units.closestEnemy(Team.sharded, ally.x, ally.y, 100f, u -> Units.closestEnemy(u.getTeam(), u.x, u.y, 100f, o -> true) == ally));
+    }
+
+    @Test
+    void entityGroupRemoval(){
+        createMap();
+
+        EntityGroup<BaseUnit> group = unitGroups[Team.sharded.ordinal()];
+        Array<BaseUnit> units = new Array<>();
+        for(int i = 0; i < 100; i++){
+            BaseUnit unit = UnitTypes.dagger.create(Team.sharded);
+            unit.add();
+            units.add(unit);
+        }
+
+        //queued entities can be removed by ID before they are added
+        group.removeByID(units.pop().getID());
+        group.updateEvents();
+        assertEquals(99, group.size());
+
+        for(int i = 0; i < units.size; i += 2){
+            units.get(i).remove();
+        }
+        group.updateEvents();
+
+        assertEquals(49, group.size());
+        for(int i = 0; i < group.size(); i++){
+            assertEquals(i, group.all().get(i).getGroupIndex());
+            assertEquals(1, units.indexOf(group.all().get(i), true) % 2);
+        }
+    }
+
+    @Test
+    void unitMovementBlocked(){
+        createMap();
+        world.setBlock(world.tile(5, 4), Blocks.copperWall, Team.sharded);
+
+        BaseUnit unit = UnitTypes.dagger.create(Team.sharded);
+        unit.set(2 * tilesize, 4 * tilesize);
+
+        //a single large step must not tunnel through the wall
+        unit.move(5 * tilesize, 0f);
+        assertTrue(unit.x > 2 * tilesize && unit.x < 5 * tilesize - tilesize / 2f, "Unit passed through wall: " + unit.x);
+
+        //movement along the wall is not blocked
+        unit.move(0f, 2 * tilesize);
+        assertEquals(6 * tilesize, unit.y, 0.001f);
+    }
+
+    @Test
+    void idleCrafterSleeps(){
+        createMap();
+
+        Tile tile = world.tile(4, 4);
+        world.setBlock(tile, Blocks.graphitePress, Team.sharded);
+        tileGroup.updateEvents();
+
+        for(int i = 0; i <= TileEntity.timeToSleep; i++){
+            tile.entity.update();
+        }
+        tileGroup.updateEvents();
+
+        assertTrue(tile.entity.isSleeping());
+        assertFalse(tileGroup.all().contains(tile.entity, true));
+
+        //an item handed in wakes the crafter up again
+        tile.block().handleItem(Items.coal, tile, world.tile(6, 4));
+        tileGroup.updateEvents();
+
+        assertFalse(tile.entity.isSleeping());
+        assertTrue(tileGroup.all().contains(tile.entity, true));
+    }
+
     @Test
     void multiblock(){
         createMap();
@@ -0,0 +1,84 @@
+import io.anuke.arc.util.*;
+import io.anuke.mindustry.content.*;
+import io.anuke.mindustry.entities.type.*;
+import org.junit.jupiter.api.*;
+
+import java.util.Random;
+
+import static io.anuke.mindustry.Vars.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BulletTests extends WorldTestFixture{
+
+    /** Creates an empty map with bullets flying out of its center in random directions. They do not despawn for at least 600 frames. */
+    void createBullets(int amount){
+        logic.reset();
+        beginWorld(200, 200);
+        world.endMapLoad();
+
+        Random random = new Random(0);
+        float center = 100 * tilesize;
+        for(int i = 0; i < amount; i++){
+            Bullet.create(Bullets.standardCopper, null, defaultTeam, center, center, random.nextFloat() * 360f, 0.5f + random.nextFloat(), 10f);
+        }
+    }
+
+    void update(boolean batched){
+        if(batched){
+            Bullet.updateAll(bulletGroup);
+        }else{
+            bulletGroup.update();
+        }
+    }
+
+    /** @return x, y and time of every bullet after simulating a few frames */
+    float[] simulate(boolean batched){
+        createBullets(100);
+
+        for(int i = 0; i < 30; i++){
+            update(batched);
+        }
+
+        float[] result = new float[bulletGroup.size() * 3];
+        for(int i = 0; i < bulletGroup.size(); i++){
+            Bullet bullet = bulletGroup.all().get(i);
+            result[i * 3] = bullet.x;
+            result[i * 3 + 1] = bullet.y;
+            result[i * 3 + 2] = bullet.time();
+        }
+        return result;
+    }
+
+    @Test
+    void batchedUpdateMatchesSingle(){
+        float[] single = simulate(false);
+        float[] batched = simulate(true);
+
+        assertEquals(300, single.length);
+        assertArrayEquals(single, batched);
+    }
+
+    @Test
+    @Tag("benchmark")
+    void updateThroughput(){
+        int amount = 20000, frames = 60;
+
+        for(boolean batched : new boolean[]{false, true}){
+            createBullets(amount);
+
+            //warmup
+            for(int i = 0; i < frames; i++){
+                update(batched);
+            }
+
+            long start = Time.nanos();
+            for(int i = 0; i < frames; i++){
+                update(batched);
+            }
+            float elapsed = Time.timeSinceNanos(start) / 1000000f / frames;
+
+            Log.info("{0} bullets, {1} update: {2}ms per update", amount, batched ? "batched" : "single", elapsed);
+            assertEquals(amount, bulletGroup.size());
+        }
+    }
+}
@@ -0,0 +1,162 @@
+import io.anuke.arc.util.*;
+import io.anuke.mindustry.content.*;
+import io.anuke.mindustry.game.*;
+import io.anuke.mindustry.world.*;
+import org.junit.jupiter.api.*;
+
+import static io.anuke.mindustry.Vars.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ConveyorTests extends WorldTestFixture{
+
+    /** Creates a straight line of conveyors facing right, from (1, 1) to (length, 1). */
+    void createLine(int length){
+        Tile[][] tiles = beginWorld(length + 2, 3);
+
+        for(int x = 1; x <= length; x++){
+            tiles[x][1].setBlock(Blocks.conveyor, Team.sharded, 0);
+        }
+        world.endMapLoad();
+        tileGroup.updateEvents();
+    }
+
+    /** Hands an item to the conveyor at a position, as if it came from behind. */
+    boolean insert(int x){
+        Tile tile = world.tile(x, 1), source = world.tile(x - 1, 1);
+        if(!tile.block().acceptItem(Items.copper, tile, source)) return false;
+
+        tile.block().handleItem(Items.copper, tile, source);
+        return true;
+    }
+
+    int countItems(int length){
+        int total = 0;
+        for(int x = 1; x <= length; x++){
+            total += world.tile(x, 1).entity.items.total();
+        }
+        return total;
+    }
+
+    @Test
+    void itemsMoveAlongLine(){
+        createLine(20);
+
+        assertTrue(insert(1));
+        for(int i = 0; i < 1000; i++){
+            tileGroup.update();
+        }
+
+        assertEquals(1, world.tile(20, 1).entity.items.get(Items.copper));
+        assertEquals(1, countItems(20));
+    }
+
+    @Test
+    void itemsQueueAtEnd(){
+        createLine(2);
+
+        //items can't leave the end of the line, so they back up instead of overlapping
+        int inserted = 0;
+        for(int i = 0; i < 2000; i++){
+            if(insert(1)) inserted++;
+            tileGroup.update();
+        }
+
+        assertTrue(inserted > 2);
+        assertEquals(inserted, countItems(2));
+        assertFalse(insert(1));
+    }
+
+    @Test
+    void brokenLineStopsItems(){
+        createLine(20);
+
+        //let the line be detected before it is split
+        for(int i = 0; i < 10; i++){
+            tileGroup.update();
+        }
+        world.tile(10, 1).setBlock(Blocks.air);
+
+        assertTrue(insert(1));
+        for(int i = 0; i < 1000; i++){
+            tileGroup.update();
+        }
+
+        assertEquals(1, world.tile(9, 1).entity.items.get(Items.copper));
+        assertEquals(0, world.tile(20, 1).entity.items.total());
+    }
+
+    @Test
+    void lineMembersSleep(){
+        createLine(20);
+
+        assertTrue(insert(1));
+        for(int i = 0; i < 300; i++){
+            tileGroup.update();
+        }
+
+        //the item is still on its way, moved by the front while the conveyors behind it sleep
+        assertEquals(0, world.tile(20, 1).entity.items.total());
+        assertFalse(world.tile(20, 1).entity.isSleeping());
+        for(int x = 2; x < 20; x++){
+            assertTrue(world.tile(x, 1).entity.isSleeping(), "conveyor " + x + " is awake");
+        }
+
+        for(int i = 0; i < 1000; i++){
+            tileGroup.update();
+        }
+
+        assertEquals(1, world.tile(20, 1).entity.items.get(Items.copper));
+        assertEquals(1, countItems(20));
+    }
+
+    @Test
+    void sideInputWakesLine(){
+        createLine(20);
+
+        for(int i = 0; i < 300; i++){
+            tileGroup.update();
+        }
+        assertTrue(world.tile(20, 1).entity.isSleeping());
+
+        Tile tile = world.tile(10, 1), source = world.tile(10, 0);
+        assertTrue(tile.block().acceptItem(Items.copper, tile, source));
+        tile.block().handleItem(Items.copper, tile, source);
+
+        for(int i = 0; i < 3; i++){
+            tileGroup.update();
+        }
+        assertFalse(world.tile(20, 1).entity.isSleeping());
+
+        for(int i = 0; i < 1000; i++){
+            tileGroup.update();
+        }
+
+        assertEquals(1, world.tile(20, 1).entity.items.get(Items.copper));
+        assertEquals(1, countItems(20));
+    }
+
+    @Test
+    @Tag("benchmark")
+    void lineThroughput(){
+        int length = 10000, frames = 60;
+        createLine(length);
+
+        for(int x = 1; x <= length; x++){
+            assertTrue(insert(x));
+        }
+
+        //warmup
+        for(int i = 0; i < frames; i++){
+            tileGroup.update();
+        }
+
+        long start = Time.nanos();
+        for(int i = 0; i < frames; i++){
+            tileGroup.update();
+        }
+        float elapsed = Time.timeSinceNanos(start) / 1000000f / frames;
+
+        Log.info("Conveyor line of {0} tiles: {1}ms per update", length, elapsed);
+        assertEquals(length, countItems(length));
+    }
+}
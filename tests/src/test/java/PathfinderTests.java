@@ -0,0 +1,218 @@
+import io.anuke.arc.*;
+import io.anuke.arc.collection.*;
+import io.anuke.arc.math.*;
+import io.anuke.arc.math.geom.*;
+import io.anuke.arc.util.*;
+import io.anuke.mindustry.ai.*;
+import io.anuke.mindustry.ai.Pathfinder.*;
+import io.anuke.mindustry.content.*;
+import io.anuke.mindustry.game.EventType.*;
+import io.anuke.mindustry.game.*;
+import io.anuke.mindustry.gen.*;
+import io.anuke.mindustry.world.*;
+import org.junit.jupiter.api.*;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static io.anuke.mindustry.Vars.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PathfinderTests extends WorldTestFixture{
+
+    /** Creates an empty map with a single core in the middle. The wave team's flow field is fully calculated on load. */
+    void createMap(int size){
+        beginWorld(size, size);
+        world.setBlock(world.tile(size / 2, size / 2), Blocks.coreShard, defaultTeam);
+        world.endMapLoad();
+    }
+
+    @Test
+    void flowFieldConverges(){
+        createMap(64);
+
+        assertEquals(0, pathfinder.debugValue(waveTeam, 32, 32));
+        assertTrue(pathfinder.debugValue(waveTeam, 0, 0) > pathfinder.debugValue(waveTeam, 16, 16));
+        assertTrue(pathfinder.debugValue(waveTeam, 63, 63) > 0);
+    }
+
+    @Test
+    void repairMatchesFullUpdate() throws InterruptedException{
+        createMap(64);
+
+        //wall off most of the core, so that paths have to go around
+        for(int i = 20; i < 44; i++){
+            setBlock(i, 20, Blocks.copperWall);
+            setBlock(20, i, Blocks.copperWall);
+        }
+        assertRepaired(64);
+
+        for(int i = 20; i < 44; i += 2){
+            setBlock(i, 20, Blocks.air);
+        }
+        assertRepaired(64);
+    }
+
+    /** Places a block and updates the pathfinder directly, as change events are only fired on the next frame. */
+    void setBlock(int x, int y, Block block){
+        Tile tile = world.tile(x, y);
+        tile.setBlock(block, Team.derelict);
+        pathfinder.updateTile(tile);
+    }
+
+    /** Checks that the weights repaired after tile changes are the same as the weights of a full update. */
+    void assertRepaired(int size) throws InterruptedException{
+        PathfinderHooks.awaitConvergence(pathfinder);
+
+        int[] repaired = new int[size * size];
+        for(int i = 0; i < repaired.length; i++){
+            repaired[i] = pathfinder.debugValue(waveTeam, i % size, i / size);
+        }
+
+        //recalculates all flow fields from scratch
+        Events.fire(new WorldLoadEvent());
+
+        for(int i = 0; i < repaired.length; i++){
+            assertEquals(pathfinder.debugValue(waveTeam, i % size, i / size), repaired[i], "weight at " + i % size + ", " + i / size);
+        }
+    }
+
+    @Test
+    void chunkedFlowField() throws InterruptedException{
+        int lastArea = pathfinder.chunkedArea;
+        pathfinder.chunkedArea = 0;
+
+        try{
+            createMap(128);
+
+            //local fields are calculated on request, so wait for the pathfinding thread
+            Tile start = world.tile(4, 4), next = start;
+            for(int i = 0; i < 100 && next == start; i++){
+                next = pathfinder.getTargetTile(start, waveTeam, PathTarget.enemyCores);
+                Thread.sleep(10);
+            }
+
+            assertNotSame(start, next);
+            assertTrue(next.x >= start.x && next.y >= start.y);
+        }finally{
+            pathfinder.chunkedArea = lastArea;
+        }
+    }
+
+    @Test
+    void chunkedPathAroundWalls() throws InterruptedException{
+        int lastArea = pathfinder.chunkedArea;
+        pathfinder.chunkedArea = 0;
+
+        try{
+            createMap(128);
+
+            //splits several chunks in two, so crossings on one side can't be reached from the other
+            for(int y = 0; y < 100; y++){
+                setBlock(40, y, Blocks.copperWall);
+            }
+            PathfinderHooks.awaitConvergence(pathfinder);
+
+            Tile tile = world.tile(4, 4);
+            for(int i = 0; i < 1000 && Mathf.dst(tile.x, tile.y, 64, 64) > 3; i++){
+                Tile next = tile;
+
+                //paths and local fields are calculated on request, so wait for the pathfinding thread
+                for(int attempt = 0; attempt < 3 && next == tile; attempt++){
+                    next = pathfinder.getTargetTile(tile, waveTeam, PathTarget.enemyCores);
+                    if(next == tile) PathfinderHooks.awaitConvergence(pathfinder);
+                }
+
+                assertNotSame(tile, next, "stuck at " + tile.x + ", " + tile.y);
+                tile = next;
+            }
+
+            assertTrue(Mathf.dst(tile.x, tile.y, 64, 64) <= 3, "did not reach the core");
+        }finally{
+            pathfinder.chunkedArea = lastArea;
+        }
+    }
+
+    @Test
+    @Tag("benchmark")
+    void frontierThroughput(){
+        int size = 300, iterations = 10;
+        int[] tiles = new int[size * size];
+        Random random = new Random(0);
+
+        //open ground with scattered walls
+        for(int i = 0; i < tiles.length; i++){
+            boolean wall = random.nextFloat() < 0.2f;
+            tiles[i] = PathTile.get((byte)1, (byte)Team.derelict.ordinal(), (byte)0, !wall);
+        }
+        int target = size / 2 + size / 2 * size;
+        tiles[target] = PathTile.get((byte)1, (byte)0, (byte)0, true);
+
+        int[] weights = new int[size * size];
+        Bits valid = new Bits(size * size);
+        IntQueue frontier = new IntQueue();
+        int[] offsets = Pathfinder.neighbourOffsets(size);
+
+        int[][] legacyTiles = new int[size][size];
+        for(int i = 0; i < tiles.length; i++){
+            legacyTiles[i % size][i / size] = tiles[i];
+        }
+        int[][] legacyWeights = new int[size][size];
+        short[][] searches = new short[size][size];
+
+        //first round is warmup
+        float elapsed = 0f, legacyElapsed = 0f;
+        for(int i = 0; i <= iterations; i++){
+            long start = Time.nanos();
+            Arrays.fill(weights, -1);
+            valid.clear();
+            weights[target] = 0;
+            valid.set(target);
+            frontier.addFirst(target);
+            Pathfinder.updateFrontier(tiles, size, size, offsets, waveTeam, weights, valid, frontier, -1);
+            if(i > 0) elapsed += Time.timeSinceNanos(start) / 1000000f / iterations;
+
+            start = Time.nanos();
+            legacyFlood(legacyTiles, legacyWeights, searches, (short)(i + 1), target % size, target / size);
+            if(i > 0) legacyElapsed += Time.timeSinceNanos(start) / 1000000f / iterations;
+        }
+
+        Log.info("Frontier over {0}x{0} tiles: {1}ms per flood, {2}ms with nested arrays", size, elapsed, legacyElapsed);
+
+        for(int i = 0; i < tiles.length; i++){
+            assertEquals(legacyWeights[i % size][i / size], weights[i]);
+        }
+    }
+
+    /** Flood over [x][y] arrays with per-tile search IDs, the layout used before flat arrays; kept only for comparison. */
+    void legacyFlood(int[][] tiles, int[][] weights, short[][] searches, short search, int targetX, int targetY){
+        int size = tiles.length;
+        IntQueue frontier = new IntQueue();
+
+        for(int[] column : weights){
+            Arrays.fill(column, -1);
+        }
+        weights[targetX][targetY] = 0;
+        searches[targetX][targetY] = search;
+        frontier.addFirst(Pos.get(targetX, targetY));
+
+        while(frontier.size > 0){
+            int pos = frontier.removeLast();
+            int x = Pos.x(pos), y = Pos.y(pos), cost = weights[x][y];
+
+            if(cost == -1) continue;
+
+            for(Point2 point : Geometry.d4){
+                int dx = x + point.x, dy = y + point.y;
+                if(dx < 0 || dy < 0 || dx >= size || dy >= size) continue;
+
+                int other = tiles[dx][dy];
+                if((weights[dx][dy] > cost + PathTile.cost(other) || searches[dx][dy] < search) && Pathfinder.canPass(other, waveTeam)){
+                    frontier.addFirst(Pos.get(dx, dy));
+                    weights[dx][dy] = cost + PathTile.cost(other);
+                    searches[dx][dy] = search;
+                }
+            }
+        }
+    }
+}
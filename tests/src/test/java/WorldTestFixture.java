@@ -0,0 +1,41 @@
+import io.anuke.arc.util.*;
+import io.anuke.mindustry.core.GameState.*;
+import io.anuke.mindustry.world.*;
+import org.junit.jupiter.api.*;
+
+import static io.anuke.mindustry.Vars.*;
+
+/**
+ * Sets up the game for tests that run on a small world built in code.
+ * All tests which subclass this run with a fixed delta of 1.
+ */
+public class WorldTestFixture{
+
+    @BeforeAll
+    static void launchApplication(){
+        ApplicationTests.launchApplication();
+    }
+
+    @BeforeEach
+    void resetWorld(){
+        Time.setDeltaProvider(() -> 1f);
+        logic.reset();
+        state.set(State.menu);
+    }
+
+    /**
+     * Creates an empty world and begins loading it. Blocks can be placed on the returned tiles before
+     * the load is finished with {@link io.anuke.mindustry.core.World#endMapLoad()}.
+     */
+    Tile[][] beginWorld(int width, int height){
+        Tile[][] tiles = world.createTiles(width, height);
+
+        world.beginMapLoad();
+        for(int x = 0; x < width; x++){
+            for(int y = 0; y < height; y++){
+                tiles[x][y] = new Tile(x, y);
+            }
+        }
+        return tiles;
+    }
+}
@@ -0,0 +1,14 @@
+package io.anuke.mindustry.ai;
+
+/** Gives tests access to the state of the pathfinding thread. */
+public class PathfinderHooks{
+
+    /** Waits until all tile changes made so far have been applied and every flow field has converged. */
+    public static void awaitConvergence(Pathfinder pathfinder) throws InterruptedException{
+        //the iteration that is currently running may have started before the last change was posted, so wait for the one after it
+        int start = pathfinder.passes;
+        while(pathfinder.thread != null && pathfinder.thread.isAlive() && (pathfinder.passes - start < 2 || !pathfinder.converged)){
+            Thread.sleep(1);
+        }
+    }
+}
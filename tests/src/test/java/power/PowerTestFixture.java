@@ -38,6 +38,12 @@ public class PowerTestFixture{
         Time.setDeltaProvider(() -> 0.5f);
     }
 
+    @AfterEach
+    void clearGraphs(){
+        //graphs register themselves when tiles are added, and would otherwise be solved in later tests
+        PowerGraph.clearAll();
+    }
+
     protected static PowerGenerator createFakeProducerBlock(float producedPower){
         return new PowerGenerator("fakegen"){{
             powerProduction = producedPower;
@@ -1,8 +1,11 @@
 package power;
 
 import io.anuke.arc.*;
+import io.anuke.arc.collection.*;
 import io.anuke.arc.math.*;
+import io.anuke.arc.math.geom.*;
 import io.anuke.arc.util.*;
+import io.anuke.mindustry.entities.*;
 import io.anuke.mindustry.world.*;
 import io.anuke.mindustry.world.blocks.power.*;
 import io.anuke.mindustry.world.consumers.*;
@@ -112,6 +115,105 @@ public class PowerTests extends PowerTestFixture{
             }
         }
 
+        /** Makes sure merged graphs don't keep solving tiles that have moved to another graph. */
+        @Test
+        void mergedGraphsMoveMembers(){
+            Tile producerTile = createFakeTile(0, 0, createFakeProducerBlock(10.0f));
+            producerTile.<PowerGenerator.GeneratorEntity>ent().productionEfficiency = 1.0f;
+            Tile consumerTile = createFakeTile(0, 1, createFakeDirectConsumer(5.0f));
+            PowerGraph consumerGraph = consumerTile.entity.power.graph;
+
+            producerTile.entity.power.graph.add(consumerGraph);
+
+            assertSame(producerTile.entity.power.graph, consumerTile.entity.power.graph);
+            assertEquals(0f, consumerGraph.getPowerNeeded(), Mathf.FLOAT_ROUNDING_ERROR);
+            assertEquals(5.0f * Time.delta(), producerTile.entity.power.graph.getPowerNeeded(), Mathf.FLOAT_ROUNDING_ERROR);
+
+            producerTile.entity.power.graph.update();
+            assertEquals(1.0f, consumerTile.entity.power.status, Mathf.FLOAT_ROUNDING_ERROR);
+        }
+
+        /** Benchmarks removing tiles from a large grid, which should only explore the parts that are cut off. */
+        @Test
+        void largeGridSplits(){
+            int size = 150;
+            Block battery = createFakeBattery(10f);
+            Tile[][] tiles = new Tile[size][size];
+            PowerGraph graph = new PowerGraph();
+
+            for(int x = 0; x < size; x++){
+                for(int y = 0; y < size; y++){
+                    tiles[x][y] = createFakeTile(x, y, battery);
+                    graph.add(tiles[x][y]);
+                }
+            }
+
+            for(int x = 0; x < size; x++){
+                for(int y = 0; y < size; y++){
+                    for(Point2 point : Geometry.d4){
+                        int nx = x + point.x, ny = y + point.y;
+                        if(nx >= 0 && ny >= 0 && nx < size && ny < size){
+                            tiles[x][y].entity.proximity().add(tiles[nx][ny]);
+                        }
+                    }
+                }
+            }
+
+            long start = Time.nanos();
+            removeTile(tiles[size / 2][size / 2]);
+            float removeTime = Time.timeSinceNanos(start) / 1000000f;
+
+            assertSame(graph, tiles[0][0].entity.power.graph);
+            assertSame(graph, tiles[size - 1][size - 1].entity.power.graph);
+
+            //cut off the corner
+            removeTile(tiles[1][0]);
+            removeTile(tiles[0][1]);
+
+            assertNotSame(graph, tiles[0][0].entity.power.graph);
+            assertSame(graph, tiles[1][1].entity.power.graph);
+            assertEquals(10f, tiles[0][0].entity.power.graph.getTotalBatteryCapacity(), Mathf.FLOAT_ROUNDING_ERROR);
+
+            //for comparison, flood the whole grid like a full rebuild would
+            start = Time.nanos();
+            new PowerGraph().reflow(tiles[size - 1][size - 1]);
+            float reflowTime = Time.timeSinceNanos(start) / 1000000f;
+
+            Log.info("Removing a tile from a {0}x{0} grid: {1}ms; full reflow: {2}ms", size, removeTime, reflowTime);
+        }
+
+        void removeTile(Tile tile){
+            for(Tile other : tile.entity.proximity()){
+                other.entity.proximity().removeValue(tile, true);
+            }
+            tile.entity.power.graph.remove(tile);
+        }
+
+        /** Makes sure independent graphs solved as parallel jobs each get their own result. */
+        @Test
+        void parallelGraphsSolveIndependently(){
+            Array<PowerGraph> graphs = new Array<>();
+            Array<Tile> consumers = new Array<>();
+
+            for(int i = 0; i < 32; i++){
+                Tile producerTile = createFakeTile(i, 0, createFakeProducerBlock(i / 32f));
+                producerTile.<PowerGenerator.GeneratorEntity>ent().productionEfficiency = 1f;
+                Tile consumerTile = createFakeTile(i, 1, createFakeDirectConsumer(1f));
+
+                PowerGraph graph = new PowerGraph();
+                graph.add(producerTile);
+                graph.add(consumerTile);
+                graphs.add(graph);
+                consumers.add(consumerTile);
+            }
+
+            new ParallelUpdater().compute(graphs, 1, PowerGraph::update);
+
+            for(int i = 0; i < consumers.size; i++){
+                assertEquals(i / 32f, consumers.get(i).entity.power.status, Mathf.FLOAT_ROUNDING_ERROR);
+            }
+        }
+
         /** Makes sure a direct consumer stops working after power production is set to zero. */
         @Test
         void directConsumptionStopsWithNoPower(){